@@ -0,0 +1,106 @@
+// Fan-out load test: what one relayed ping costs as unrelated connections grow.
+//
+// Opens CONNECTIONS in-process sockets spread over parties of PARTY_SIZE, then times
+// broadcastPing from one member of one party. With the (serverId, party) room index the cost
+// only depends on the party size, so the indexed column stays flat; the scan column walks every
+// socket the way broadcastPing did before the index and grows with the connection count.
+//
+//   npm run bench:fanout
+//   PARTY_SIZE=16 PINGS=50000 node bench/fanout.js
+import { broadcastPing, joinRoom, leaveRoom } from '../index.js';
+
+const CONNECTIONS = [100, 1_000, 10_000, 50_000];
+const PARTY_SIZE = Number(process.env.PARTY_SIZE || 8);
+const PINGS = Number(process.env.PINGS || 20_000);
+// The scan gets slow with many sockets; fewer pings are enough to see its cost.
+const SCAN_PINGS = Math.max(1, Math.floor(PINGS / 10));
+const SERVER_ID = 'bench.example';
+
+function fakeSocket(party, memberId) {
+  return {
+    party,
+    serverId: SERVER_ID,
+    player: `player${memberId}`,
+    roomKey: '',
+    readyState: 1,
+    received: 0,
+    send() {
+      this.received += 1;
+    }
+  };
+}
+
+function payloadOf(sender, i) {
+  return {
+    type: 'ping',
+    party: sender.party,
+    serverId: sender.serverId,
+    player: sender.player,
+    dimension: 'minecraft:overworld',
+    x: i % 512,
+    y: 64,
+    z: -i % 512,
+    pingType: 'normal',
+    t: 1_700_000_000_000 + i
+  };
+}
+
+function openSockets(count) {
+  const sockets = [];
+  for (let i = 0; i < count; i++) {
+    const ws = fakeSocket(`party${Math.floor(i / PARTY_SIZE)}`, i + 1);
+    joinRoom(ws);
+    sockets.push(ws);
+  }
+  return sockets;
+}
+
+// broadcastPing before the room index: every socket is checked, every recipient serialized.
+function scanAllSockets(sockets, senderWs, payload) {
+  for (const client of sockets) {
+    if (client === senderWs || client.readyState !== 1) {
+      continue;
+    }
+    if (client.party !== senderWs.party || client.serverId !== senderWs.serverId) {
+      continue;
+    }
+    client.send(JSON.stringify(payload));
+  }
+}
+
+function nsPerPing(pings, run) {
+  for (let i = 0; i < Math.min(pings, 1_000); i++) {
+    run(i);
+  }
+  const start = process.hrtime.bigint();
+  for (let i = 0; i < pings; i++) {
+    run(i);
+  }
+  return Number(process.hrtime.bigint() - start) / pings;
+}
+
+function measure(connections) {
+  const sockets = openSockets(connections);
+  const sender = sockets[0];
+
+  const indexed = nsPerPing(PINGS, (i) => broadcastPing(sender, payloadOf(sender, i)));
+  const scan = nsPerPing(SCAN_PINGS, (i) => scanAllSockets(sockets, sender, payloadOf(sender, i)));
+
+  for (const ws of sockets) {
+    leaveRoom(ws);
+  }
+  return { indexed, scan };
+}
+
+// Warm-up so the first row is not paying for the JIT.
+measure(CONNECTIONS[0]);
+
+console.log(`party size ${PARTY_SIZE}, ${PINGS} pings per run (${SCAN_PINGS} for the scan)`);
+console.log('connections  rooms   indexed ns/ping  scan ns/ping');
+for (const connections of CONNECTIONS) {
+  const { indexed, scan } = measure(connections);
+  console.log(
+    `${String(connections).padStart(11)}  ${String(Math.ceil(connections / PARTY_SIZE)).padStart(5)}`
+    + `  ${indexed.toFixed(0).padStart(15)}  ${scan.toFixed(0).padStart(12)}`
+  );
+}
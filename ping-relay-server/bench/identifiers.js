@@ -0,0 +1,77 @@
+// Identifier validation micro-benchmark: the char-class table in index.js against the
+// trim + regex checks it replaced, on a mix of valid and invalid party, server and dimension ids.
+//
+//   npm run bench:identifiers
+//   CHECKS=5000000 node bench/identifiers.js
+import { isValidDimension, isValidIdentifier } from '../index.js';
+
+const CHECKS = Number(process.env.CHECKS || 2_000_000);
+const MAX_TEXT_LENGTH = 96;
+
+const INPUTS = [
+  'minecraft:overworld',
+  'minecraft:the_nether',
+  'Minecraft:The_End',
+  'play.example-server.net',
+  ' mc.example.org:25565 ',
+  'custom_mod:dimensions/sky_islands',
+  'bad dim',
+  'minecraft:über',
+  'no-namespace',
+  '   ',
+  'x'.repeat(MAX_TEXT_LENGTH + 1)
+];
+
+// isValidIdentifier / isValidDimension before the table.
+function regexIsValidIdentifier(value, maxLength = MAX_TEXT_LENGTH) {
+  if (typeof value !== 'string') {
+    return false;
+  }
+  const normalized = value.trim();
+  if (!normalized || normalized.length > maxLength) {
+    return false;
+  }
+  return /^[a-z0-9._:/-]+$/i.test(normalized);
+}
+
+function regexIsValidDimension(value) {
+  if (typeof value !== 'string') {
+    return false;
+  }
+  const normalized = value.trim();
+  if (!normalized || normalized.length > MAX_TEXT_LENGTH) {
+    return false;
+  }
+  return /^[a-z0-9._-]+:[a-z0-9._/-]+$/i.test(normalized);
+}
+
+function nsPerCheck(check) {
+  let valid = 0;
+  for (let i = 0; i < Math.min(CHECKS, 200_000); i++) {
+    valid += check(INPUTS[i % INPUTS.length]) ? 1 : 0;
+  }
+  const start = process.hrtime.bigint();
+  for (let i = 0; i < CHECKS; i++) {
+    valid += check(INPUTS[i % INPUTS.length]) ? 1 : 0;
+  }
+  const ns = Number(process.hrtime.bigint() - start) / CHECKS;
+  return valid >= 0 ? ns : NaN;
+}
+
+for (const input of INPUTS) {
+  if (regexIsValidIdentifier(input) !== isValidIdentifier(input)
+    || regexIsValidDimension(input) !== isValidDimension(input)) {
+    throw new Error(`table and regex disagree on ${JSON.stringify(input)}`);
+  }
+}
+
+console.log(`${CHECKS} checks per run`);
+console.log('check        regex ns  table ns');
+for (const [name, regex, table] of [
+  ['identifier', regexIsValidIdentifier, isValidIdentifier],
+  ['dimension', regexIsValidDimension, isValidDimension]
+]) {
+  const before = nsPerCheck(regex);
+  const after = nsPerCheck(table);
+  console.log(`${name.padEnd(10)}  ${before.toFixed(1).padStart(8)}  ${after.toFixed(1).padStart(8)}`);
+}
@@ -0,0 +1,104 @@
+// Shared-frame micro-benchmark: CPU per broadcast for parties of 2, 8, 32 and 128.
+//
+// broadcastPing encodes a ping once (one JSON buffer for protocol 0 clients, one binary frame
+// for protocol 1 clients) and hands the same buffer to every recipient. The per-recipient
+// column serializes the payload again for every member, the way broadcastPing did before
+// (ws turns each string into a Buffer on send, so that conversion is counted per member too).
+// Sockets are in-process stand-ins, so only the relay's own work is measured.
+//
+//   npm run bench:shared-frame
+//   BROADCASTS=20000 node bench/shared-frame.js
+import { broadcastPing, joinRoom, leaveRoom } from '../index.js';
+
+const PARTY_SIZES = [2, 8, 32, 128];
+const BROADCASTS = Number(process.env.BROADCASTS || 5_000);
+const SERVER_ID = 'bench.example';
+
+function fakeSocket(memberId, protocol) {
+  return {
+    party: 'bench',
+    serverId: SERVER_ID,
+    player: `player${memberId}`,
+    protocol,
+    memberId,
+    roomKey: '',
+    roomId: -1,
+    knownDimensions: new Map(),
+    knownPlayers: new Map(),
+    readyState: 1,
+    bytes: 0,
+    send(data) {
+      this.bytes += data.length;
+    }
+  };
+}
+
+function payloadOf(sender, i) {
+  return {
+    type: 'ping',
+    party: sender.party,
+    serverId: sender.serverId,
+    player: sender.player,
+    dimension: 'minecraft:overworld',
+    x: i % 512,
+    y: 64,
+    z: -i % 512,
+    pingType: 'normal',
+    t: 1_700_000_000_000 + i
+  };
+}
+
+function perRecipient(members, senderWs, payload) {
+  for (const client of members) {
+    if (client === senderWs || client.readyState !== 1) {
+      continue;
+    }
+    client.send(Buffer.from(JSON.stringify(payload), 'utf8'));
+  }
+}
+
+function nsPerBroadcast(run) {
+  for (let i = 0; i < Math.min(BROADCASTS, 1_000); i++) {
+    run(i);
+  }
+  const start = process.hrtime.bigint();
+  for (let i = 0; i < BROADCASTS; i++) {
+    run(i);
+  }
+  return Number(process.hrtime.bigint() - start) / BROADCASTS;
+}
+
+function measure(partySize, protocol) {
+  const members = [];
+  for (let i = 0; i < partySize; i++) {
+    const ws = fakeSocket(i + 1, protocol);
+    joinRoom(ws);
+    members.push(ws);
+  }
+  const sender = members[0];
+
+  const before = nsPerBroadcast((i) => perRecipient(members, sender, payloadOf(sender, i)));
+  const shared = nsPerBroadcast((i) => broadcastPing(sender, payloadOf(sender, i)));
+
+  for (const ws of members) {
+    leaveRoom(ws);
+  }
+  return { before, shared };
+}
+
+// Warm-up so the first row is not paying for the JIT.
+measure(PARTY_SIZES[PARTY_SIZES.length - 1], 0);
+measure(PARTY_SIZES[PARTY_SIZES.length - 1], 1);
+
+console.log(`${BROADCASTS} broadcasts per run`);
+console.log('party  protocol  per-recipient ns  shared frame ns  saved');
+for (const protocol of [0, 1]) {
+  for (const partySize of PARTY_SIZES) {
+    const { before, shared } = measure(partySize, protocol);
+    const saved = before > 0 ? (1 - shared / before) * 100 : 0;
+    console.log(
+      `${String(partySize).padStart(5)}  ${(protocol === 0 ? 'json' : 'binary').padStart(8)}`
+      + `  ${before.toFixed(0).padStart(16)}  ${shared.toFixed(0).padStart(15)}  ${saved.toFixed(0).padStart(4)}%`
+    );
+  }
+}
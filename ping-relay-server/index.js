@@ -1,6 +1,7 @@
 import { WebSocketServer } from 'ws';
 import { mkdir, readFile, writeFile } from 'node:fs/promises';
 import path from 'node:path';
+import { fileURLToPath } from 'node:url';
 
 const PORT = Number(process.env.PORT || 8787);
 const MAX_MESSAGE_BYTES = readEnvInt('MAX_MESSAGE_BYTES', 4096, 512, 65536);
@@ -12,13 +13,13 @@ const MAX_Y = readEnvInt('MAX_Y', 4096, 256, 8192);
 const MAX_INVALID_MESSAGES = readEnvInt('MAX_INVALID_MESSAGES', 8, 1, 100);
 const PING_RATE_WINDOW_MS = readEnvInt('PING_RATE_WINDOW_MS', 1000, 100, 10_000);
 const PING_RATE_MAX = readEnvInt('PING_RATE_MAX', 12, 1, 120);
+const MAX_INTERNED_DIMENSIONS = readEnvInt('MAX_INTERNED_DIMENSIONS', 256, 16, 65535);
+const HEARTBEAT_INTERVAL_MS = readEnvInt('HEARTBEAT_INTERVAL_MS', 30_000, 5_000, 300_000);
+// Logging every relayed ping costs more than relaying it; only for debugging.
+const LOG_PINGS = process.env.LOG_PINGS === '1';
 const STATS_FILE = process.env.STATS_FILE || path.join(process.cwd(), 'stats', 'usage-stats.json');
 
-const wss = new WebSocketServer({
-  port: PORT,
-  maxPayload: MAX_MESSAGE_BYTES,
-  perMessageDeflate: false
-});
+let wss = null;
 
 const usageStats = {
   currentActiveUsers: 0,
@@ -30,6 +31,23 @@ const usageStats = {
 
 const uniqueUsers = new Set();
 const activeUserSessions = new Map();
+const rooms = new Map();
+let nextRoomId = 0;
+let nextMemberId = 0;
+
+// Binary ping frames (wire protocol 1), all integers big-endian:
+//   client -> relay: u8 op, u8 pingType, u16 dimensionId, u32 roomId, i32 x, i32 y, i32 z
+//   relay -> client: u8 op, u8 pingType, u16 dimensionId, u32 roomId, u32 senderId, i32 x, i32 y, i32 z
+// Coordinates are fixed-point in 1/COORD_SCALE blocks. Room ids are handed out
+// in the `joined` reply, dimension and sender ids through `intern` messages.
+// Dimension ids are scoped to a room and freed with it, so one party filling its
+// table (MAX_INTERNED_DIMENSIONS) only sends that party back to JSON pings.
+const WIRE_PROTOCOL = 1;
+const BINARY_OP_PING = 1;
+const BINARY_PING_IN_BYTES = 20;
+const BINARY_PING_OUT_BYTES = 24;
+const COORD_SCALE = 32;
+const PING_TYPES = ['normal', 'warning', 'go'];
 let statsWriteTimer = null;
 
 function toUserKey(player, fallbackRemote) {
@@ -206,20 +224,90 @@ function cleanPlayer(value) {
   return player.replace(/[^a-zA-Z0-9_\-]/g, '').slice(0, MAX_PLAYER_LENGTH) || 'unknown';
 }
 
+// Identifier character classes by char code (ASCII only); replaces per-call regex tests.
+const CHAR_NAMESPACE = 1; // [a-zA-Z0-9._-]
+const CHAR_PATH = 2; // namespace chars plus '/'
+const CHAR_IDENTIFIER = 4; // path chars plus ':'
+const IDENTIFIER_CHAR_CLASSES = buildIdentifierCharClasses();
+
+function buildIdentifierCharClasses() {
+  const table = new Uint8Array(128);
+  const all = CHAR_NAMESPACE | CHAR_PATH | CHAR_IDENTIFIER;
+  for (let code = 0; code < 128; code += 1) {
+    const ch = String.fromCharCode(code);
+    if (/[a-zA-Z0-9._-]/.test(ch)) {
+      table[code] = all;
+    }
+  }
+  table['/'.charCodeAt(0)] = CHAR_PATH | CHAR_IDENTIFIER;
+  table[':'.charCodeAt(0)] = CHAR_IDENTIFIER;
+  return table;
+}
+
+function hasCharClass(code, charClass) {
+  return code < 128 && (IDENTIFIER_CHAR_CLASSES[code] & charClass) !== 0;
+}
+
+// Same characters String.prototype.trim() strips, checked without building a new string.
+function isTrimmedCode(code) {
+  return (code >= 9 && code <= 13) || code === 32 || code === 0xa0 || code === 0x1680
+    || (code >= 0x2000 && code <= 0x200a) || code === 0x2028 || code === 0x2029
+    || code === 0x202f || code === 0x205f || code === 0x3000 || code === 0xfeff;
+}
+
+function trimStartIndex(value) {
+  let start = 0;
+  while (start < value.length && isTrimmedCode(value.charCodeAt(start))) {
+    start += 1;
+  }
+  return start;
+}
+
+function trimEndIndex(value, start) {
+  let end = value.length;
+  while (end > start && isTrimmedCode(value.charCodeAt(end - 1))) {
+    end -= 1;
+  }
+  return end;
+}
+
+function isCharRange(value, start, end, charClass) {
+  for (let i = start; i < end; i += 1) {
+    if (!hasCharClass(value.charCodeAt(i), charClass)) {
+      return false;
+    }
+  }
+  return true;
+}
+
 function isValidIdentifier(value, maxLength = MAX_TEXT_LENGTH) {
-  const normalized = cleanText(value, maxLength);
-  if (!normalized) {
+  if (typeof value !== 'string') {
     return false;
   }
-  return /^[a-z0-9._:/-]+$/i.test(normalized);
+  const start = trimStartIndex(value);
+  const end = trimEndIndex(value, start);
+  if (start === end || end - start > maxLength) {
+    return false;
+  }
+  return isCharRange(value, start, end, CHAR_IDENTIFIER);
 }
 
 function isValidDimension(value) {
-  const normalized = cleanText(value, MAX_TEXT_LENGTH);
-  if (!normalized) {
+  if (typeof value !== 'string') {
     return false;
   }
-  return /^[a-z0-9._-]+:[a-z0-9._/-]+$/i.test(normalized);
+  const start = trimStartIndex(value);
+  const end = trimEndIndex(value, start);
+  if (start === end || end - start > MAX_TEXT_LENGTH) {
+    return false;
+  }
+  // namespace:path with exactly one ':' and both parts non-empty
+  const colon = value.indexOf(':', start);
+  if (colon <= start || colon >= end - 1) {
+    return false;
+  }
+  return isCharRange(value, start, colon, CHAR_NAMESPACE)
+    && isCharRange(value, colon + 1, end, CHAR_PATH);
 }
 
 function readFiniteNumber(value) {
@@ -268,37 +356,233 @@ function normalizePingType(value) {
   return 'normal';
 }
 
+function roomKeyOf(serverId, party) {
+  return `${serverId}|${party}`;
+}
+
+function joinRoom(ws) {
+  leaveRoom(ws);
+  if (!ws.party || !ws.serverId) {
+    return;
+  }
+
+  const key = roomKeyOf(ws.serverId, ws.party);
+  let room = rooms.get(key);
+  if (!room) {
+    nextRoomId = (nextRoomId + 1) >>> 0;
+    room = { id: nextRoomId, members: new Set(), dimensionIds: new Map(), dimensionNames: [] };
+    rooms.set(key, room);
+  }
+  room.members.add(ws);
+  ws.roomKey = key;
+  ws.roomId = room.id;
+}
+
+function leaveRoom(ws) {
+  if (!ws.roomKey) {
+    return;
+  }
+
+  const room = rooms.get(ws.roomKey);
+  if (room) {
+    room.members.delete(ws);
+    if (room.members.size === 0) {
+      rooms.delete(ws.roomKey);
+    }
+  }
+  ws.roomKey = '';
+  ws.roomId = -1;
+}
+
+function internDimension(room, dimension) {
+  const existing = room.dimensionIds.get(dimension);
+  if (existing !== undefined) {
+    return existing;
+  }
+  if (room.dimensionNames.length >= MAX_INTERNED_DIMENSIONS) {
+    return -1;
+  }
+  const id = room.dimensionNames.length;
+  room.dimensionNames.push(dimension);
+  room.dimensionIds.set(dimension, id);
+  return id;
+}
+
+function announceIntern(ws, kind, id, value, known) {
+  if (known.get(id) === value) {
+    return;
+  }
+  known.set(id, value);
+  ws.send(JSON.stringify({ type: 'intern', kind, id, value }));
+}
+
+function toFixedCoordinate(value) {
+  return Math.round(value * COORD_SCALE);
+}
+
+function encodeBinaryPing(roomId, senderId, dimensionId, payload) {
+  const frame = Buffer.allocUnsafe(BINARY_PING_OUT_BYTES);
+  frame.writeUInt8(BINARY_OP_PING, 0);
+  frame.writeUInt8(Math.max(0, PING_TYPES.indexOf(payload.pingType)), 1);
+  frame.writeUInt16BE(dimensionId, 2);
+  frame.writeUInt32BE(roomId, 4);
+  frame.writeUInt32BE(senderId, 8);
+  frame.writeInt32BE(toFixedCoordinate(payload.x), 12);
+  frame.writeInt32BE(toFixedCoordinate(payload.y), 16);
+  frame.writeInt32BE(toFixedCoordinate(payload.z), 20);
+  return frame;
+}
+
 function broadcastPing(senderWs, payload) {
-  for (const client of wss.clients) {
+  const room = rooms.get(senderWs.roomKey);
+  if (!room) {
+    return;
+  }
+
+  const dimensionId = internDimension(room, payload.dimension);
+  let textFrame = null;
+  let binaryFrame = null;
+  for (const client of room.members) {
     if (client === senderWs) {
       continue;
     }
     if (client.readyState !== 1) {
       continue;
     }
-    if (client.party !== payload.party) {
+    if (client.protocol >= WIRE_PROTOCOL && dimensionId >= 0) {
+      announceIntern(client, 'dimension', dimensionId, payload.dimension, client.knownDimensions);
+      announceIntern(client, 'player', senderWs.memberId, payload.player, client.knownPlayers);
+      if (!binaryFrame) {
+        binaryFrame = encodeBinaryPing(room.id, senderWs.memberId, dimensionId, payload);
+      }
+      client.send(binaryFrame, { binary: true });
       continue;
     }
-    if (client.serverId !== payload.serverId) {
+    if (!textFrame) {
+      textFrame = Buffer.from(JSON.stringify(payload), 'utf8');
+    }
+    client.send(textFrame, { binary: false });
+  }
+}
+
+function readBinaryPing(raw) {
+  if (!Buffer.isBuffer(raw) || raw.length !== BINARY_PING_IN_BYTES || raw.readUInt8(0) !== BINARY_OP_PING) {
+    return null;
+  }
+
+  const typeIndex = raw.readUInt8(1);
+  if (typeIndex >= PING_TYPES.length) {
+    return null;
+  }
+
+  return {
+    roomId: raw.readUInt32BE(4),
+    pingType: PING_TYPES[typeIndex],
+    dimensionId: raw.readUInt16BE(2),
+    x: raw.readInt32BE(8) / COORD_SCALE,
+    y: raw.readInt32BE(12) / COORD_SCALE,
+    z: raw.readInt32BE(16) / COORD_SCALE
+  };
+}
+
+function relayPing(ws, dimension, x, y, z, pingType) {
+  const payload = {
+    type: 'ping',
+    party: ws.party,
+    serverId: ws.serverId,
+    player: ws.player,
+    dimension,
+    x,
+    y,
+    z,
+    pingType,
+    t: Date.now()
+  };
+
+  if (LOG_PINGS) {
+    console.log(`[relay] ping from=${payload.player} party=${payload.party} server=${payload.serverId} type=${payload.pingType} pos=(${Math.round(payload.x)}, ${Math.round(payload.y)}, ${Math.round(payload.z)}) dim=${payload.dimension}`);
+  }
+
+  broadcastPing(ws, payload);
+}
+
+function handleBinaryMessage(ws, raw) {
+  if (ws.protocol < WIRE_PROTOCOL) {
+    registerInvalid(ws);
+    return;
+  }
+  if (!canSendPing(ws)) {
+    registerInvalid(ws);
+    return;
+  }
+
+  const ping = readBinaryPing(raw);
+  if (!ping || !isPositionInBounds(ping.x, ping.y, ping.z)) {
+    registerInvalid(ws);
+    return;
+  }
+  const room = rooms.get(ws.roomKey);
+  if (!room || ping.roomId !== ws.roomId) {
+    // Sent before the client saw the `joined` reply for its latest room; drop quietly.
+    return;
+  }
+  const dimension = room.dimensionNames[ping.dimensionId];
+  if (dimension === undefined) {
+    registerInvalid(ws);
+    return;
+  }
+
+  relayPing(ws, dimension, ping.x, ping.y, ping.z, ping.pingType);
+}
+
+// Sockets that sent nothing and did not answer the last WebSocket ping within one interval
+// are half-open (e.g. NAT drop); terminating them fires 'close', which frees their room slot.
+function evictUnresponsive() {
+  for (const ws of wss.clients) {
+    if (!ws.isAlive) {
+      console.log(`[relay] evicting unresponsive client player=${ws.player}`);
+      ws.terminate();
       continue;
     }
-    client.send(JSON.stringify(payload));
+    ws.isAlive = false;
+    ws.ping();
   }
 }
 
-wss.on('connection', (ws) => {
+function acceptConnection(ws) {
   ws.party = '';
   ws.serverId = '';
   ws.player = 'unknown';
   ws.remoteAddress = ws._socket?.remoteAddress || 'unknown';
+  ws.roomKey = '';
+  ws.roomId = -1;
+  ws.memberId = 0;
+  ws.protocol = 0;
+  ws.knownDimensions = new Map();
+  ws.knownPlayers = new Map();
   ws.userKey = '';
   ws.isJoined = false;
   ws.invalidCount = 0;
   ws.rateWindowStart = Date.now();
   ws.rateCount = 0;
+  ws.isAlive = true;
   console.log('[relay] client connected');
 
-  ws.on('message', (raw) => {
+  ws.on('pong', () => {
+    ws.isAlive = true;
+  });
+
+  ws.on('ping', () => {
+    ws.isAlive = true;
+  });
+
+  ws.on('message', (raw, isBinary) => {
+    ws.isAlive = true;
+    if (isBinary) {
+      handleBinaryMessage(ws, raw);
+      return;
+    }
+
     const msg = safeParse(raw);
     if (!msg || !isString(msg.type)) {
       registerInvalid(ws);
@@ -313,13 +597,30 @@ wss.on('connection', (ws) => {
       ws.party = normalizeParty(msg.party);
       ws.serverId = normalizeServerId(msg.serverId);
       ws.player = cleanPlayer(msg.player);
+      ws.protocol = msg.proto === WIRE_PROTOCOL ? WIRE_PROTOCOL : 0;
+      nextMemberId = (nextMemberId + 1) >>> 0;
+      ws.memberId = nextMemberId;
+      // Player and dimension ids are per room, so forget what the old room announced.
+      ws.knownPlayers.clear();
+      ws.knownDimensions.clear();
+      joinRoom(ws);
       markJoin(ws);
+      if (ws.protocol >= WIRE_PROTOCOL) {
+        ws.send(JSON.stringify({
+          type: 'joined',
+          proto: ws.protocol,
+          party: ws.party,
+          serverId: ws.serverId,
+          room: ws.roomId
+        }));
+      }
       console.log(`[relay] join player=${ws.player} party=${ws.party} server=${ws.serverId}`);
       return;
     }
 
     if (msg.type === 'leave') {
       console.log(`[relay] leave player=${ws.player} party=${ws.party} server=${ws.serverId}`);
+      leaveRoom(ws);
       markLeave(ws);
       ws.party = '';
       ws.serverId = '';
@@ -357,22 +658,15 @@ wss.on('connection', (ws) => {
         return;
       }
 
-      const payload = {
-        type: 'ping',
-        party: ws.party,
-        serverId: ws.serverId,
-        player: ws.player,
-        dimension: msg.dimension,
-        x,
-        y,
-        z,
-        pingType: normalizePingType(msg.pingType),
-        t: Date.now()
-      };
-
-      console.log(`[relay] ping from=${payload.player} party=${payload.party} server=${payload.serverId} type=${payload.pingType} pos=(${Math.round(payload.x)}, ${Math.round(payload.y)}, ${Math.round(payload.z)}) dim=${payload.dimension}`);
-
-      broadcastPing(ws, payload);
+      relayPing(ws, msg.dimension, x, y, z, normalizePingType(msg.pingType));
+
+      const room = rooms.get(ws.roomKey);
+      if (ws.protocol >= WIRE_PROTOCOL && room) {
+        const dimensionId = internDimension(room, msg.dimension);
+        if (dimensionId >= 0) {
+          announceIntern(ws, 'dimension', dimensionId, msg.dimension, ws.knownDimensions);
+        }
+      }
     }
   });
 
@@ -380,13 +674,36 @@ wss.on('connection', (ws) => {
   });
 
   ws.on('close', () => {
+    leaveRoom(ws);
     markLeave(ws);
     console.log(`[relay] client disconnected player=${ws.player}`);
   });
-});
+}
 
-loadUsageStats().finally(() => {
-  schedulePersistUsageStats();
-  console.log(`Ping relay listening on ws://0.0.0.0:${PORT}`);
-  console.log(`[relay] usage stats file: ${STATS_FILE}`);
-});
+function startRelay() {
+  wss = new WebSocketServer({
+    port: PORT,
+    maxPayload: MAX_MESSAGE_BYTES,
+    perMessageDeflate: false
+  });
+
+  const heartbeatTimer = setInterval(evictUnresponsive, HEARTBEAT_INTERVAL_MS);
+  wss.on('close', () => {
+    clearInterval(heartbeatTimer);
+  });
+  wss.on('connection', acceptConnection);
+
+  loadUsageStats().finally(() => {
+    schedulePersistUsageStats();
+    console.log(`Ping relay listening on ws://0.0.0.0:${PORT}`);
+    console.log(`[relay] usage stats file: ${STATS_FILE}`);
+  });
+}
+
+// `node index.js` (npm start, the systemd unit) listens; the scripts in bench/ import the
+// room and fan-out functions without opening a port.
+if (process.argv[1] && path.resolve(process.argv[1]) === fileURLToPath(import.meta.url)) {
+  startRelay();
+}
+
+export { broadcastPing, isValidDimension, isValidIdentifier, joinRoom, leaveRoom, rooms };
@@ -16,7 +16,12 @@ public class PartyScreen extends Screen {
     private final PartyState partyState;
     private final RelayClient relayClient;
 
+    private final RelayClient.ConnectionStateListener stateListener = state -> updateRelayStatus();
+
     private TextFieldWidget codeField;
+    private volatile Text relayStatus = Text.empty();
+    private volatile int relayStatusColor = 0xFFAAAAAA;
+    private Text relayLatency = Text.empty();
 
     protected PartyScreen(MinecraftClient client, PartyState partyState, RelayClient relayClient) {
         super(Text.literal("Party"));
@@ -30,18 +35,22 @@ public class PartyScreen extends Screen {
         int centerX = this.width / 2;
         int centerY = this.height / 2;
 
+        relayClient.addConnectionStateListener(stateListener);
+        updateRelayStatus();
+        updateRelayLatency();
+
         codeField = new TextFieldWidget(this.textRenderer, centerX - 90, centerY - 40, 180, 20, Text.literal("Party Code"));
         codeField.setPlaceholder(Text.literal("Enter code"));
         this.addDrawableChild(codeField);
 
         this.addDrawableChild(ButtonWidget.builder(Text.literal("Create Party"), button -> {
             String code = generateCode(6);
-            String serverId = PingRenderUtil.currentServerId(client);
+            String serverId = PingClientMod.instance().currentServerId();
             partyState.joinParty(code, serverId);
             relayClient.sendJoin(code, serverId);
             if (client.player != null) {
                 client.player.sendMessage(Text.literal("Party created: " + code), false);
-                client.player.sendMessage(Text.literal("Relay: " + (relayClient.isConnected() ? "connected" : "disconnected") + " | " + relayClient.relayUrl()), false);
+                client.player.sendMessage(relayStatus, false);
                 client.player.sendMessage(Text.literal("Server ID: " + serverId), false);
             }
             client.setScreen(null);
@@ -50,12 +59,12 @@ public class PartyScreen extends Screen {
         this.addDrawableChild(ButtonWidget.builder(Text.literal("Join Party"), button -> {
             String code = codeField.getText().trim().toUpperCase();
             if (!code.isBlank()) {
-                String serverId = PingRenderUtil.currentServerId(client);
+                String serverId = PingClientMod.instance().currentServerId();
                 partyState.joinParty(code, serverId);
                 relayClient.sendJoin(code, serverId);
                 if (client.player != null) {
                     client.player.sendMessage(Text.literal("Joined party: " + code), false);
-                    client.player.sendMessage(Text.literal("Relay: " + (relayClient.isConnected() ? "connected" : "disconnected") + " | " + relayClient.relayUrl()), false);
+                    client.player.sendMessage(relayStatus, false);
                     client.player.sendMessage(Text.literal("Server ID: " + serverId), false);
                 }
                 client.setScreen(null);
@@ -79,6 +88,36 @@ public class PartyScreen extends Screen {
     @Override
     public void render(DrawContext context, int mouseX, int mouseY, float delta) {
         super.render(context, mouseX, mouseY, delta);
+        context.drawCenteredTextWithShadow(this.textRenderer, relayStatus, this.width / 2, this.height / 2 - 74, relayStatusColor);
+        context.drawCenteredTextWithShadow(this.textRenderer, relayLatency, this.width / 2, this.height / 2 - 62, 0xFFAAAAAA);
+    }
+
+    @Override
+    public void tick() {
+        super.tick();
+        updateRelayLatency();
+    }
+
+    @Override
+    public void removed() {
+        relayClient.removeConnectionStateListener(stateListener);
+        super.removed();
+    }
+
+    private void updateRelayLatency() {
+        double rtt = relayClient.smoothedRttMs();
+        if (!relayClient.isConnected() || Double.isNaN(rtt)) {
+            relayLatency = Text.empty();
+            return;
+        }
+        relayLatency = Text.literal("RTT " + Math.round(rtt) + " ms, jitter " + Math.round(relayClient.rttJitterMs()) + " ms");
+    }
+
+    // Runs on the relay callback thread as well as the render thread; only swaps the cached text.
+    private void updateRelayStatus() {
+        relayStatusColor = relayClient.isConnected() ? 0xFF55FF55 : 0xFFFFAA00;
+        String fallback = relayClient.onFallbackRelay() ? " (fallback, party may be split)" : "";
+        relayStatus = Text.literal("Relay: " + relayClient.connectionState().label() + fallback + " | " + relayClient.relayUrl());
     }
 
     private static String generateCode(int length) {
@@ -45,7 +45,8 @@ public class PingSettingsScreen extends Screen {
         this.addDrawableChild(colorField);
 
         relayUrlField = new TextFieldWidget(this.textRenderer, centerX - 90, panelTop + 130, 180, 20, Text.literal("Relay Host"));
-        relayUrlField.setText(PingConfig.normalizeRelayUrl(config.relayUrl));
+        relayUrlField.setMaxLength(256);
+        relayUrlField.setText(PingConfig.normalizeRelayUrls(config.relayUrl));
         relayUrlField.setPlaceholder(Text.literal("ws://ip:8787"));
         this.addDrawableChild(relayUrlField);
 
@@ -150,7 +151,7 @@ public class PingSettingsScreen extends Screen {
             return;
         }
 
-        String parsedRelayUrl = PingConfig.normalizeRelayUrl(relayUrlField.getText());
+        String parsedRelayUrl = PingConfig.normalizeRelayUrls(relayUrlField.getText());
 
         float parsedScale = PingConfig.parsePingScaleOrDefault(sizeField.getText(), config.pingScale);
         if (!isValidScale(sizeField.getText())) {
@@ -232,7 +233,7 @@ public class PingSettingsScreen extends Screen {
         context.drawCenteredTextWithShadow(this.textRenderer, this.title, centerX, panelTop - 10, 0xFFFFFFFF);
         context.drawTextWithShadow(this.textRenderer, Text.literal("Ping Duration (seconds):"), centerX - 90, panelTop, 0xFFFFFFFF);
         context.drawTextWithShadow(this.textRenderer, Text.literal("Ping Color (#RRGGBB):"), centerX - 90, panelTop + 38, 0xFFFFFFFF);
-        context.drawTextWithShadow(this.textRenderer, Text.literal("Relay Host (ws://ip:port):"), centerX - 90, panelTop + 118, 0xFFFFFFFF);
+        context.drawTextWithShadow(this.textRenderer, Text.literal("Relay Hosts (ws://ip:port, ...):"), centerX - 90, panelTop + 118, 0xFFFFFFFF);
         context.drawTextWithShadow(this.textRenderer, Text.literal("Ping Size (0.5 - 2.0):"), centerX - 90, panelTop + 154, 0xFFFFFFFF);
         context.drawTextWithShadow(this.textRenderer, Text.literal("Preview:"), previewLeft, previewTop - 11, 0xFFFFFFFF);
 
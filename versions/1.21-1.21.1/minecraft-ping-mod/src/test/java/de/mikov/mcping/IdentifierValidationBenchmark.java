@@ -0,0 +1,60 @@
+package de.mikov.mcping;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Inbound server id / dimension validation: the {@link RelayIdentifiers} table lookup against
+ * the trim, lower-case and {@code String.matches} check RelayClient used before.
+ * Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class IdentifierValidationBenchmark {
+    private static final int CHECKS_PER_ROUND = 200_000;
+
+    private static final String[] INPUTS = {
+        "minecraft:overworld",
+        "minecraft:the_nether",
+        "Minecraft:The_End",
+        "play.example-server.net",
+        " mc.example.org:25565 ",
+        "custom_mod:dimensions/sky_islands",
+        "bad dim",
+        "a//b",
+        "minecraft:\u00FCber",
+        "   ",
+        "x".repeat(RelayClient.MAX_SERVER_ID_LENGTH + 1)
+    };
+
+    @Test
+    void identifierValidation() {
+        for (String input : INPUTS) {
+            assertEquals(regexIsValidIdentifier(input),
+                RelayIdentifiers.isValidIdentifier(input, RelayClient.MAX_SERVER_ID_LENGTH), input);
+        }
+
+        MicroBench.Result before = MicroBench.measure(CHECKS_PER_ROUND,
+            i -> regexIsValidIdentifier(INPUTS[i % INPUTS.length]) ? 1 : 0);
+        MicroBench.Result after = MicroBench.measure(CHECKS_PER_ROUND,
+            i -> RelayIdentifiers.isValidIdentifier(INPUTS[i % INPUTS.length], RelayClient.MAX_SERVER_ID_LENGTH) ? 1 : 0);
+
+        System.out.println("path              ns/check  B/check");
+        System.out.printf("String.matches    %8.1f  %7.0f%n", before.nsPerOp(), before.bytesPerOp());
+        System.out.printf("RelayIdentifiers  %8.1f  %7.0f%n", after.nsPerOp(), after.bytesPerOp());
+        assertTrue(after.bytesPerOp() < 1.0, "RelayIdentifiers allocated " + after.bytesPerOp() + " B per check");
+    }
+
+    /** {@code RelayClient.isValidIdentifier} before the lookup table. */
+    private static boolean regexIsValidIdentifier(String value) {
+        String normalized = value.trim().toLowerCase(Locale.ROOT);
+        if (normalized.length() > RelayClient.MAX_SERVER_ID_LENGTH) {
+            return false;
+        }
+        return normalized.matches("[a-z0-9._:/\\-]+") && !normalized.contains("//");
+    }
+}
@@ -0,0 +1,35 @@
+package de.mikov.mcping;
+
+import net.minecraft.util.math.Vec3d;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PingManagerTest {
+    @Test
+    void pingInAnUnloadedDimensionShowsUpOnceThePlayerIsThere() {
+        int server = IdInterner.SERVER_IDS.intern("manager-test.example");
+        int overworld = IdInterner.DIMENSIONS.intern("minecraft:overworld");
+        String remoteDimension = "manager_test:not_loaded_yet";
+        assertEquals(IdInterner.NO_HANDLE, IdInterner.DIMENSIONS.lookup(remoteDimension));
+
+        PingManager manager = new PingManager(new PingConfig());
+        manager.addPings(List.of(new PingManager.IncomingPing("Teammate", new Vec3d(1, 64, 2), server,
+            IdInterner.NO_HANDLE, remoteDimension, PingType.NORMAL)));
+
+        long nowMs = System.currentTimeMillis();
+        List<PingRecord> frame = new ArrayList<>();
+        manager.collectActive(nowMs, server, overworld, frame);
+        assertTrue(frame.isEmpty());
+
+        // The player enters the dimension: PingClientMod interns it for the frame query.
+        int entered = IdInterner.DIMENSIONS.intern(remoteDimension);
+        manager.collectActive(nowMs, server, entered, frame);
+        assertEquals(1, frame.size());
+        assertEquals("Teammate", frame.get(0).sender());
+    }
+}
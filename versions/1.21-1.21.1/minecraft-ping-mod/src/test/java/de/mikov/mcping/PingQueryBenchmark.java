@@ -0,0 +1,81 @@
+package de.mikov.mcping;
+
+import net.minecraft.util.math.Vec3d;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Per-frame ping query with 0, 10, 100 and 1,000 live pings: the snapshot read by
+ * {@link PingManager#collectActive} against the locked, pruning, list-allocating
+ * {@code activePings} it replaced. Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class PingQueryBenchmark {
+    private static final int[] LIVE_PINGS = {0, 10, 100, 1_000};
+    private static final int QUERIES_PER_ROUND = 20_000;
+
+    @Test
+    void frameQuery() {
+        int server = IdInterner.SERVER_IDS.intern("bench.example");
+        int overworld = IdInterner.DIMENSIONS.intern("minecraft:overworld");
+        int nether = IdInterner.DIMENSIONS.intern("minecraft:the_nether");
+
+        System.out.println("live pings  activePings ns  B/frame  collectActive ns  B/frame");
+        for (int live : LIVE_PINGS) {
+            PingManager manager = new PingManager(new PingConfig());
+            LegacyPingQuery legacy = new LegacyPingQuery();
+            long expiresAtMs = System.currentTimeMillis() + 3_600_000L;
+            for (int i = 0; i < live; i++) {
+                // Three in four pings are in the player's dimension, the rest get filtered out.
+                int dimension = i % 4 == 3 ? nether : overworld;
+                Vec3d pos = new Vec3d(i, 64, -i);
+                manager.addPing("player" + i, pos, server, dimension, PingType.NORMAL);
+                legacy.pings.add(new PingRecord("player" + i, "player" + i, pos, server, dimension,
+                    IdInterner.DIMENSIONS.valueOf(dimension), PingType.NORMAL, expiresAtMs));
+            }
+
+            long nowMs = System.currentTimeMillis();
+            List<PingRecord> frame = new ArrayList<>();
+            MicroBench.Result before = MicroBench.measure(QUERIES_PER_ROUND,
+                i -> legacy.activePings(nowMs, server, overworld).size());
+            MicroBench.Result after = MicroBench.measure(QUERIES_PER_ROUND, i -> {
+                manager.collectActive(nowMs, server, overworld, frame);
+                return frame.size();
+            });
+
+            assertEquals(legacy.activePings(nowMs, server, overworld).size(), frame.size());
+            System.out.printf("%10d  %14.0f  %7.0f  %16.0f  %7.0f%n",
+                live, before.nsPerOp(), before.bytesPerOp(), after.nsPerOp(), after.bytesPerOp());
+            assertTrue(after.bytesPerOp() < 1.0, "collectActive allocated " + after.bytesPerOp() + " B per frame");
+        }
+    }
+
+    /** {@code PingManager.activePings} before the snapshot: lock, prune, then a fresh list per frame. */
+    private static final class LegacyPingQuery {
+        final List<PingRecord> pings = new ArrayList<>();
+
+        synchronized List<PingRecord> activePings(long nowMs, int currentServerHandle, int currentDimensionHandle) {
+            Iterator<PingRecord> iterator = pings.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().expired(nowMs)) {
+                    iterator.remove();
+                }
+            }
+
+            List<PingRecord> filtered = new ArrayList<>();
+            for (PingRecord ping : pings) {
+                if (ping.dimensionHandle() == currentDimensionHandle && ping.serverHandle() == currentServerHandle) {
+                    filtered.add(ping);
+                }
+            }
+            return filtered;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.mikov.mcping;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RelaySelectorTest {
+    private static final List<String> URLS = List.of("wss://a.example", "wss://b.example", "wss://c.example");
+    private static final String SERVER_ID = "play.example.net";
+
+    @Test
+    void serverPicksItsPreferredRelay() {
+        RelaySelector selector = new RelaySelector(URLS);
+        String preferred = selector.preferred(SERVER_ID);
+
+        assertEquals(preferred, selector.select(SERVER_ID, 0L));
+        assertEquals(preferred, new RelaySelector(URLS).preferred(SERVER_ID));
+        assertNull(selector.preferred(null));
+    }
+
+    @Test
+    void roundTripTimesOnlyDecideWithoutAServerId() {
+        RelaySelector selector = new RelaySelector(URLS);
+        String preferred = selector.preferred(SERVER_ID);
+        String fastest = URLS.stream().filter(url -> !url.equals(preferred)).findFirst().orElseThrow();
+        for (String url : URLS) {
+            selector.recordProbe(url, url.equals(fastest) ? 5L : 500L);
+        }
+
+        assertEquals(fastest, selector.select(null, 0L));
+        // Every client on the server must meet on the same relay, however far away it is.
+        assertEquals(preferred, selector.select(SERVER_ID, 0L));
+    }
+
+    @Test
+    void failedRelayIsSkippedUntilCleared() {
+        RelaySelector selector = new RelaySelector(URLS);
+        String preferred = selector.preferred(SERVER_ID);
+
+        selector.markFailed(preferred, 0L);
+        assertTrue(selector.isFailed(preferred, 1_000L));
+        assertNotEquals(preferred, selector.select(SERVER_ID, 1_000L));
+        // The party's meeting point does not move with one client's failures.
+        assertEquals(preferred, selector.preferred(SERVER_ID));
+
+        selector.clearFailed(preferred);
+        assertFalse(selector.isFailed(preferred, 1_000L));
+        assertEquals(preferred, selector.select(SERVER_ID, 1_000L));
+    }
+
+    @Test
+    void failureExpiresAfterTheCooldown() {
+        RelaySelector selector = new RelaySelector(URLS);
+        String preferred = selector.preferred(SERVER_ID);
+
+        selector.markFailed(preferred, 0L);
+        assertEquals(preferred, selector.select(SERVER_ID, 60_000L));
+    }
+
+    @Test
+    void allFailedStillPicksOne() {
+        RelaySelector selector = new RelaySelector(URLS);
+        for (String url : URLS) {
+            selector.markFailed(url, 0L);
+        }
+        assertEquals(selector.preferred(SERVER_ID), selector.select(SERVER_ID, 1_000L));
+    }
+}
@@ -0,0 +1,147 @@
+package de.mikov.mcping;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Just enough of a relay for connection tests: accepts the WebSocket handshake on a loopback
+ * port, records when each one completed and otherwise ignores the client. {@link #stop()} drops
+ * every connection without a close frame, like a relay process that died; {@link #start()} brings
+ * it back on the same port.
+ */
+final class StandInRelay implements AutoCloseable {
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final int port;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private final List<Long> handshakeTimesMs = new CopyOnWriteArrayList<>();
+    private volatile ServerSocket server;
+
+    StandInRelay() throws IOException {
+        server = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        port = server.getLocalPort();
+        acceptLoop(server);
+    }
+
+    String url() {
+        return "ws://127.0.0.1:" + port + "/";
+    }
+
+    /** Wall-clock times of all completed handshakes, in arrival order. */
+    List<Long> handshakeTimesMs() {
+        return handshakeTimesMs;
+    }
+
+    void stop() throws IOException {
+        server.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+        connections.clear();
+    }
+
+    void start() throws IOException {
+        ServerSocket next = new ServerSocket();
+        next.setReuseAddress(true);
+        next.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        server = next;
+        acceptLoop(next);
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+    }
+
+    private void acceptLoop(ServerSocket socket) {
+        Thread thread = new Thread(() -> {
+            while (!socket.isClosed()) {
+                try {
+                    Socket connection = socket.accept();
+                    Thread serve = new Thread(() -> serve(connection), "stand-in-relay-connection");
+                    serve.setDaemon(true);
+                    serve.start();
+                } catch (IOException ignored) {
+                    // Closed by stop().
+                }
+            }
+        }, "stand-in-relay-accept");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void serve(Socket connection) {
+        try (connection) {
+            InputStream in = connection.getInputStream();
+            String key = null;
+            for (String line : readHeaders(in)) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().toLowerCase(Locale.ROOT).equals("sec-websocket-key")) {
+                    key = line.substring(colon + 1).trim();
+                }
+            }
+            if (key == null) {
+                return;
+            }
+
+            OutputStream out = connection.getOutputStream();
+            out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            connections.add(connection);
+            handshakeTimesMs.add(System.currentTimeMillis());
+
+            byte[] discard = new byte[512];
+            while (in.read(discard) >= 0) {
+                // Heartbeats and anything else the client sends go unanswered.
+            }
+        } catch (IOException ignored) {
+            // Dropped by stop() or by the client.
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    private static List<String> readHeaders(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                if (line.isEmpty()) {
+                    break;
+                }
+                lines.add(line.toString());
+                line.setLength(0);
+            } else if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return lines;
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                .digest((key + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
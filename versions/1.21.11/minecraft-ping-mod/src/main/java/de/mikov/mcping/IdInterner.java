@@ -0,0 +1,75 @@
+package de.mikov.mcping;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps server and dimension identifiers to small integer handles for the lifetime
+ * of the game session, so per-frame filtering can compare ints instead of strings.
+ * Handles are never reused; lookups are lock-free, only new identifiers take the lock.
+ * <p>
+ * The tables are never evicted, so only identifiers this client uses itself (the joined
+ * server, dimensions it has loaded) may be interned. Identifiers received from the relay
+ * go through {@link #lookup} and never add entries; a ping in a dimension that is not
+ * interned yet keeps its key (see {@link PingRecord}).
+ */
+public final class IdInterner {
+    public static final int NO_HANDLE = -1;
+    public static final IdInterner SERVER_IDS = new IdInterner(256);
+    public static final IdInterner DIMENSIONS = new IdInterner(1024);
+
+    private final int maxHandles;
+    private final Map<String, Integer> handles = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[0];
+
+    private IdInterner(int maxHandles) {
+        this.maxHandles = maxHandles;
+    }
+
+    public int intern(String value) {
+        if (value == null) {
+            return NO_HANDLE;
+        }
+
+        Integer existing = handles.get(value);
+        if (existing != null) {
+            return existing;
+        }
+
+        synchronized (this) {
+            existing = handles.get(value);
+            if (existing != null) {
+                return existing;
+            }
+
+            String[] current = values;
+            if (current.length >= maxHandles) {
+                return NO_HANDLE;
+            }
+
+            String[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = value;
+            values = grown;
+            handles.put(value, current.length);
+            return current.length;
+        }
+    }
+
+    /** Handle of an already interned {@code value}, or {@link #NO_HANDLE}; never adds an entry. */
+    public int lookup(String value) {
+        if (value == null) {
+            return NO_HANDLE;
+        }
+        Integer existing = handles.get(value);
+        return existing == null ? NO_HANDLE : existing;
+    }
+
+    public String valueOf(int handle) {
+        String[] current = values;
+        if (handle < 0 || handle >= current.length) {
+            return "unknown";
+        }
+        return current[handle];
+    }
+}
@@ -2,29 +2,84 @@ package de.mikov.mcping;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import net.fabricmc.loader.api.FabricLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class PingConfig {
+    private static final Logger LOGGER = LoggerFactory.getLogger("mcping-config");
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     private static final Path CONFIG_PATH = FabricLoader.getInstance().getConfigDir().resolve("mcping-client.json");
+    private static final Path CONFIG_TEMP_PATH = CONFIG_PATH.resolveSibling("mcping-client.json.tmp");
+    private static final long WRITE_DEBOUNCE_MS = 500L;
+    // Editors often save in several steps; wait for the file to settle before reloading it.
+    private static final long RELOAD_SETTLE_MS = 200L;
     private static final String DEFAULT_RELAY_URL = "ws://158.180.50.88:8787";
     private static final int DEFAULT_PING_LIFETIME_SECONDS = 10;
     private static final int DEFAULT_PING_COLOR_RGB = 0xE66D00;
     private static final float DEFAULT_PING_SCALE = 1.0f;
     private static final boolean DEFAULT_PLAYER_COLORS_ENABLED = false;
     private static final boolean DEFAULT_SHOW_SENDER_NAME = true;
+    private static final int DEFAULT_MAX_PINGS_PER_SENDER = 2;
 
+    // One relay URL, or several separated by commas for failover.
     public String relayUrl = DEFAULT_RELAY_URL;
     public int pingLifetimeSeconds = DEFAULT_PING_LIFETIME_SECONDS;
     public int pingColorRgb = DEFAULT_PING_COLOR_RGB;
     public float pingScale = DEFAULT_PING_SCALE;
     public boolean playerColorsEnabled = DEFAULT_PLAYER_COLORS_ENABLED;
     public boolean showSenderName = DEFAULT_SHOW_SENDER_NAME;
+    public int maxPingsPerSender = DEFAULT_MAX_PINGS_PER_SENDER;
+
+    /**
+     * Normalized, immutable view of the settings, replaced as a whole on every save or reload.
+     * Readers on any thread take one consistent set of values without re-clamping them.
+     */
+    public record Snapshot(
+        String relayUrl,
+        List<String> relayUrls,
+        long pingLifetimeMs,
+        int pingColorRgb,
+        int pingColorArgb,
+        float pingScale,
+        boolean playerColorsEnabled,
+        boolean showSenderName,
+        int maxPingsPerSender
+    ) {
+    }
+
+    // Persistence state; transient so Gson leaves it out of the JSON.
+    private transient volatile Snapshot snapshot;
+    private transient volatile PingRenderSettings renderSettings;
+    private transient final Object writeLock = new Object();
+    // Serializes the writer thread and the shutdown hook; save() never takes it.
+    private transient final Object ioLock = new Object();
+    private transient String pendingJson;
+    private transient volatile String lastWrittenJson;
+    private transient ScheduledExecutorService writer;
 
     public static PingConfig load() {
         try {
@@ -42,49 +97,243 @@ public class PingConfig {
                 return config;
             }
 
-            config.relayUrl = normalizeRelayUrl(config.relayUrl);
+            config.relayUrl = normalizeRelayUrls(config.relayUrl);
             config.pingLifetimeSeconds = clampLifetimeSeconds(config.pingLifetimeSeconds);
             config.pingColorRgb = normalizeRgb(config.pingColorRgb);
             if (config.pingScale <= 0.0f) {
                 config.pingScale = DEFAULT_PING_SCALE;
             }
             config.pingScale = clampPingScale(config.pingScale);
+            config.maxPingsPerSender = clampMaxPingsPerSender(config.maxPingsPerSender);
+            config.lastWrittenJson = json;
+            config.publish();
             return config;
-        } catch (IOException ex) {
+        } catch (IOException | JsonParseException ex) {
             PingConfig config = new PingConfig();
             config.save();
             return config;
         }
     }
 
+    /**
+     * Normalizes the fields, publishes a new {@link #snapshot()} and schedules the file write.
+     * The JSON is built here, so later field edits do not leak into it; the write itself happens
+     * on a background thread after a short debounce, so a burst of saves costs one write.
+     */
     public void save() {
-        try {
-            pingLifetimeSeconds = clampLifetimeSeconds(pingLifetimeSeconds);
-            pingColorRgb = normalizeRgb(pingColorRgb);
-            pingScale = clampPingScale(pingScale);
-            relayUrl = normalizeRelayUrl(relayUrl);
-            Files.createDirectories(CONFIG_PATH.getParent());
-            Files.writeString(CONFIG_PATH, GSON.toJson(this), StandardCharsets.UTF_8);
-        } catch (IOException ignored) {
+        pingLifetimeSeconds = clampLifetimeSeconds(pingLifetimeSeconds);
+        pingColorRgb = normalizeRgb(pingColorRgb);
+        pingScale = clampPingScale(pingScale);
+        maxPingsPerSender = clampMaxPingsPerSender(maxPingsPerSender);
+        relayUrl = normalizeRelayUrls(relayUrl);
+        publish();
+
+        String json = GSON.toJson(this);
+        synchronized (writeLock) {
+            boolean scheduled = pendingJson != null;
+            pendingJson = json;
+            if (!scheduled) {
+                writer().schedule(this::writePending, WRITE_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+            }
         }
     }
 
+    public Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            current = publish();
+        }
+        return current;
+    }
+
+    PingRenderSettings renderSettings() {
+        PingRenderSettings current = renderSettings;
+        if (current == null) {
+            snapshot();
+            current = renderSettings;
+        }
+        return current;
+    }
+
     public long pingLifetimeMs() {
-        return (long) clampLifetimeSeconds(pingLifetimeSeconds) * 1_000L;
+        return snapshot().pingLifetimeMs();
     }
 
     public int pingColorArgb() {
-        return 0xFF000000 | normalizeRgb(pingColorRgb);
+        return snapshot().pingColorArgb();
     }
 
     public float pingScale() {
-        return clampPingScale(pingScale);
+        return snapshot().pingScale();
+    }
+
+    public int maxPingsPerSender() {
+        return snapshot().maxPingsPerSender();
+    }
+
+    /**
+     * Reloads the settings whenever {@code mcping-client.json} is changed by something other than
+     * this client, e.g. a text editor. Parsing happens on the watcher thread; the new values are
+     * applied through {@code applyOn} (the client thread), like a save from the settings screen.
+     */
+    public void watchForChanges(Executor applyOn) {
+        WatchService watchService;
+        try {
+            Files.createDirectories(CONFIG_PATH.getParent());
+            watchService = FileSystems.getDefault().newWatchService();
+            CONFIG_PATH.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException ex) {
+            LOGGER.warn("Config hot reload unavailable: {}", ex.getMessage());
+            return;
+        }
+
+        Thread watcher = new Thread(() -> watchLoop(watchService, applyOn), "mcping-config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchLoop(WatchService watchService, Executor applyOn) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean touched = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path changed && changed.equals(CONFIG_PATH.getFileName())) {
+                        touched = true;
+                    }
+                }
+                key.reset();
+                if (!touched) {
+                    continue;
+                }
+
+                Thread.sleep(RELOAD_SETTLE_MS);
+                WatchKey settled = watchService.poll();
+                if (settled != null) {
+                    settled.pollEvents();
+                    settled.reset();
+                }
+                reloadFromDisk(applyOn);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        }
+    }
+
+    private void reloadFromDisk(Executor applyOn) {
+        String json;
+        PingConfig loaded;
+        try {
+            json = Files.readString(CONFIG_PATH, StandardCharsets.UTF_8);
+            if (json.equals(lastWrittenJson)) {
+                return;
+            }
+            loaded = GSON.fromJson(json, PingConfig.class);
+        } catch (IOException | JsonParseException ex) {
+            LOGGER.warn("Ignoring unreadable config change: {}", ex.getMessage());
+            return;
+        }
+        if (loaded == null) {
+            return;
+        }
+
+        lastWrittenJson = json;
+        applyOn.execute(() -> {
+            relayUrl = loaded.relayUrl;
+            pingLifetimeSeconds = loaded.pingLifetimeSeconds;
+            pingColorRgb = loaded.pingColorRgb;
+            pingScale = loaded.pingScale > 0.0f ? loaded.pingScale : DEFAULT_PING_SCALE;
+            playerColorsEnabled = loaded.playerColorsEnabled;
+            showSenderName = loaded.showSenderName;
+            maxPingsPerSender = loaded.maxPingsPerSender;
+            save();
+            LOGGER.info("Reloaded {}", CONFIG_PATH.getFileName());
+        });
+    }
+
+    private Snapshot publish() {
+        Snapshot next = new Snapshot(
+            normalizeRelayUrls(relayUrl),
+            List.copyOf(parseRelayUrls(relayUrl)),
+            (long) clampLifetimeSeconds(pingLifetimeSeconds) * 1_000L,
+            normalizeRgb(pingColorRgb),
+            0xFF000000 | normalizeRgb(pingColorRgb),
+            clampPingScale(pingScale),
+            playerColorsEnabled,
+            showSenderName,
+            clampMaxPingsPerSender(maxPingsPerSender)
+        );
+        renderSettings = PingRenderSettings.from(next);
+        snapshot = next;
+        return next;
+    }
+
+    private ScheduledExecutorService writer() {
+        synchronized (writeLock) {
+            if (writer == null) {
+                writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "mcping-config-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                // The writer is a daemon thread, so flush a save still waiting out its debounce.
+                Runtime.getRuntime().addShutdownHook(new Thread(this::writePending, "mcping-config-flush"));
+            }
+            return writer;
+        }
+    }
+
+    // Writes to a temp file and moves it over the config, so a crash never leaves a truncated file.
+    // Only the hand-off of pendingJson happens under writeLock, so save() never waits on disk I/O;
+    // taking it inside ioLock keeps a newer snapshot from being overwritten by an older one.
+    private void writePending() {
+        synchronized (ioLock) {
+            String json;
+            synchronized (writeLock) {
+                json = pendingJson;
+                pendingJson = null;
+            }
+            if (json == null) {
+                return;
+            }
+
+            try {
+                Files.createDirectories(CONFIG_PATH.getParent());
+                writeDurably(CONFIG_TEMP_PATH, json);
+                lastWrittenJson = json;
+                try {
+                    Files.move(CONFIG_TEMP_PATH, CONFIG_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(CONFIG_TEMP_PATH, CONFIG_PATH, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException ex) {
+                LOGGER.warn("Could not write {}: {}", CONFIG_PATH.getFileName(), ex.getMessage());
+            }
+        }
+    }
+
+    // Forced to disk before the move; otherwise a crash right after it can leave the renamed
+    // file empty, since the rename may reach the disk before the data does.
+    private static void writeDurably(Path path, String text) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(text);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
     }
 
     public static int clampLifetimeSeconds(int seconds) {
         return Math.max(5, Math.min(300, seconds));
     }
 
+    public static int clampMaxPingsPerSender(int count) {
+        return Math.max(1, Math.min(32, count));
+    }
+
     public static int normalizeRgb(int rgb) {
         return rgb & 0x00FFFFFF;
     }
@@ -113,6 +362,10 @@ public class PingConfig {
         return DEFAULT_SHOW_SENDER_NAME;
     }
 
+    public static int defaultMaxPingsPerSender() {
+        return DEFAULT_MAX_PINGS_PER_SENDER;
+    }
+
     public static float clampPingScale(float scale) {
         return Math.max(0.5f, Math.min(2.0f, scale));
     }
@@ -150,9 +403,35 @@ public class PingConfig {
         }
     }
 
+    /** Normalized, de-duplicated relay URLs of a comma-separated list; invalid entries are dropped. */
+    public static List<String> parseRelayUrls(String value) {
+        List<String> urls = new ArrayList<>();
+        if (value != null) {
+            for (String part : value.split("[,;\\s]+")) {
+                String normalized = toRelayUrl(part);
+                if (normalized != null && !urls.contains(normalized)) {
+                    urls.add(normalized);
+                }
+            }
+        }
+        if (urls.isEmpty()) {
+            urls.add(DEFAULT_RELAY_URL);
+        }
+        return urls;
+    }
+
+    public static String normalizeRelayUrls(String value) {
+        return String.join(", ", parseRelayUrls(value));
+    }
+
     public static String normalizeRelayUrl(String value) {
+        String normalized = toRelayUrl(value);
+        return normalized != null ? normalized : DEFAULT_RELAY_URL;
+    }
+
+    private static String toRelayUrl(String value) {
         if (value == null || value.isBlank()) {
-            return DEFAULT_RELAY_URL;
+            return null;
         }
 
         String normalized = value.trim();
@@ -170,6 +449,6 @@ public class PingConfig {
             return normalized;
         }
 
-        return DEFAULT_RELAY_URL;
+        return null;
     }
 }
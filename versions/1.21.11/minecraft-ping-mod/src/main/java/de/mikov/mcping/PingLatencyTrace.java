@@ -0,0 +1,33 @@
+package de.mikov.mcping;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in input latency trace. Start the client with {@code -Dmcping.traceInputLatency=true}
+ * to log, for every ping sent, the time from the ping key release to the
+ * {@code RelayClient.sendPing} call and how long that call took.
+ */
+final class PingLatencyTrace {
+    private static final Logger LOGGER = LoggerFactory.getLogger("mcping-latency");
+
+    static final boolean ENABLED = Boolean.getBoolean("mcping.traceInputLatency");
+
+    private PingLatencyTrace() {
+    }
+
+    static long timestamp() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    static void pingSent(PingType type, long releasedAtNs, long sendStartNs, long sendEndNs) {
+        if (!ENABLED || releasedAtNs == 0L) {
+            return;
+        }
+
+        LOGGER.info("ping {}: release->sendPing {} us, sendPing {} us",
+            type,
+            (sendStartNs - releasedAtNs) / 1_000L,
+            (sendEndNs - sendStartNs) / 1_000L);
+    }
+}
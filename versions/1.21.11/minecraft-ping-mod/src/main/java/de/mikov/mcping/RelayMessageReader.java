@@ -0,0 +1,200 @@
+package de.mikov.mcping;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming decoder for inbound relay JSON messages.
+ * <p>
+ * Reads one flat object straight into the reusable fields below instead of building a
+ * {@code JsonObject} tree. Unknown fields are skipped; decoding stops at the first known
+ * field with the wrong type or length. Strings are trimmed, absent strings stay
+ * {@code null}, absent numbers {@code NaN} and absent ids {@link #NO_ID}. Not
+ * thread-safe: each instance belongs to the relay decoder thread.
+ */
+final class RelayMessageReader {
+    static final long NO_ID = -1L;
+
+    private static final int MAX_KEYWORD_LENGTH = 16;
+
+    private final CharSequenceReader source = new CharSequenceReader();
+
+    String type;
+    String kind;
+    String party;
+    String serverId;
+    String player;
+    String dimension;
+    String pingType;
+    String value;
+    double x;
+    double y;
+    double z;
+    long proto;
+    long room;
+    long id;
+
+    /** Decodes {@code message}; returns false (leaving partial fields) if it is not a valid relay object. */
+    boolean read(CharSequence message) {
+        reset();
+        source.reset(message);
+        JsonReader reader = new JsonReader(source);
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return false;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!readField(reader, reader.nextName())) {
+                    return false;
+                }
+            }
+            reader.endObject();
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (IOException | IllegalStateException | NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    private boolean readField(JsonReader reader, String name) throws IOException {
+        switch (name) {
+            case "type" -> {
+                type = readText(reader, MAX_KEYWORD_LENGTH);
+                return type != null;
+            }
+            case "kind" -> {
+                kind = readText(reader, MAX_KEYWORD_LENGTH);
+                return kind != null;
+            }
+            case "pingType" -> {
+                pingType = readText(reader, MAX_KEYWORD_LENGTH);
+                return pingType != null;
+            }
+            case "party" -> {
+                party = readText(reader, RelayClient.MAX_SERVER_ID_LENGTH);
+                return party != null;
+            }
+            case "serverId" -> {
+                serverId = readText(reader, RelayClient.MAX_SERVER_ID_LENGTH);
+                return serverId != null;
+            }
+            case "player" -> {
+                player = readText(reader, RelayClient.MAX_PLAYER_LENGTH);
+                return player != null;
+            }
+            case "dimension" -> {
+                dimension = readText(reader, RelayClient.MAX_DIMENSION_LENGTH);
+                return dimension != null;
+            }
+            case "value" -> {
+                value = readText(reader, RelayClient.MAX_DIMENSION_LENGTH);
+                return value != null;
+            }
+            case "x" -> {
+                x = readNumber(reader);
+                return !Double.isNaN(x);
+            }
+            case "y" -> {
+                y = readNumber(reader);
+                return !Double.isNaN(y);
+            }
+            case "z" -> {
+                z = readNumber(reader);
+                return !Double.isNaN(z);
+            }
+            case "proto" -> {
+                proto = readId(reader);
+                return proto != NO_ID;
+            }
+            case "room" -> {
+                room = readId(reader);
+                return room != NO_ID;
+            }
+            case "id" -> {
+                id = readId(reader);
+                return id != NO_ID;
+            }
+            default -> {
+                reader.skipValue();
+                return true;
+            }
+        }
+    }
+
+    private void reset() {
+        type = null;
+        kind = null;
+        party = null;
+        serverId = null;
+        player = null;
+        dimension = null;
+        pingType = null;
+        value = null;
+        x = Double.NaN;
+        y = Double.NaN;
+        z = Double.NaN;
+        proto = NO_ID;
+        room = NO_ID;
+        id = NO_ID;
+    }
+
+    private static String readText(JsonReader reader, int maxLength) throws IOException {
+        if (reader.peek() != JsonToken.STRING) {
+            return null;
+        }
+        String text = reader.nextString().trim();
+        if (text.isEmpty() || text.length() > maxLength) {
+            return null;
+        }
+        return text;
+    }
+
+    private static double readNumber(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.NUMBER) {
+            return Double.NaN;
+        }
+        double number = reader.nextDouble();
+        return Double.isFinite(number) ? number : Double.NaN;
+    }
+
+    private static long readId(JsonReader reader) throws IOException {
+        double number = readNumber(reader);
+        if (Double.isNaN(number) || number < 0 || number != Math.rint(number)) {
+            return NO_ID;
+        }
+        return (long) number;
+    }
+
+    /** Resettable {@link Reader} over a {@link CharSequence}, so no String copy of the frame is made. */
+    private static final class CharSequenceReader extends Reader {
+        private CharSequence chars = "";
+        private int position;
+
+        void reset(CharSequence chars) {
+            this.chars = chars;
+            this.position = 0;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            int remaining = chars.length() - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int count = Math.min(length, remaining);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = chars.charAt(position + i);
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
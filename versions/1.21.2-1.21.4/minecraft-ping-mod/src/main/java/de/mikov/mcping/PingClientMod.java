@@ -1,23 +1,31 @@
 package de.mikov.mcping;
 
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.client.rendering.v1.HudRenderCallback;
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.option.KeyBinding;
 import net.minecraft.client.util.InputUtil;
+import net.minecraft.client.world.ClientWorld;
 import net.minecraft.text.Text;
 import net.minecraft.util.hit.BlockHitResult;
 import net.minecraft.util.hit.HitResult;
 import net.minecraft.util.math.Vec3d;
 import org.lwjgl.glfw.GLFW;
+import org.lwjgl.glfw.GLFWKeyCallbackI;
+import org.lwjgl.glfw.GLFWMouseButtonCallbackI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PingClientMod implements ClientModInitializer {
     private static PingClientMod INSTANCE;
@@ -27,6 +35,7 @@ public class PingClientMod implements ClientModInitializer {
     private static final double PING_SELECTION_THRESHOLD_PIXELS = 5.0;
     private static final String DEFAULT_PARTY_CODE = "1";
     private static final long SELECTION_DELAY_MS = 120;
+    private static final long SELECTION_DELAY_NS = SELECTION_DELAY_MS * 1_000_000L;
     private static final String KEY_CATEGORY_TRANSLATION = "key.categories.simplemultiplayerping";
 
     private KeyBinding pingKey;
@@ -38,10 +47,23 @@ public class PingClientMod implements ClientModInitializer {
 
     private RelayClient relayClient;
     private String lastKnownServerId = "";
+    // Resolved once per connection from the JOIN/DISCONNECT events; "unknown" while not on a server.
+    private volatile String currentServerId = "unknown";
     private String relayUrlInUse = "";
-
+    private ClientWorld dimensionHandleWorld;
+    private int dimensionHandle = IdInterner.NO_HANDLE;
+    private final List<PingRecord> visiblePings = new ArrayList<>();
+
+    // Physical key behind the ping binding; re-resolved only when the binding changes.
+    private volatile InputUtil.Key boundPingKey;
+    // Ping key state as reported by the raw GLFW input callbacks, never polled from GLFW.
+    private final AtomicBoolean pingKeyHeld = new AtomicBoolean();
+    private GLFWKeyCallbackI vanillaKeyCallback;
+    private GLFWMouseButtonCallbackI vanillaMouseButtonCallback;
+
+    // Hold timer and wheel selection; only touched on the client thread, at frame resolution.
     private boolean pingKeyDown;
-    private long pingKeyDownTime;
+    private long pingKeyDownNs;
     private boolean isPingWheelOpen;
     private PingType selectedPingType = PingType.NORMAL;
     private Vec3d savedPingTarget = null;
@@ -51,9 +73,11 @@ public class PingClientMod implements ClientModInitializer {
         INSTANCE = this;
         MinecraftClient client = MinecraftClient.getInstance();
         config = PingConfig.load();
+        config.watchForChanges(client::execute);
         pingManager = new PingManager(config);
-        relayUrlInUse = PingConfig.normalizeRelayUrl(config.relayUrl);
-        relayClient = new RelayClient(client, pingManager, partyState, relayUrlInUse);
+        PingConfig.Snapshot settings = config.snapshot();
+        relayUrlInUse = settings.relayUrl();
+        relayClient = new RelayClient(client, pingManager, partyState, settings.relayUrls());
         LOGGER.info("Minecraft Ping Mod initialized. relayUrl={} selectionDelayMs={}", relayUrlInUse, SELECTION_DELAY_MS);
 
         pingKey = KeyBindingHelper.registerKeyBinding(createKeyBindingCompat(
@@ -68,21 +92,28 @@ public class PingClientMod implements ClientModInitializer {
             GLFW.GLFW_KEY_P
         ));
 
+        ClientLifecycleEvents.CLIENT_STARTED.register(this::installPingKeyCallbacks);
         ClientTickEvents.END_CLIENT_TICK.register(this::onClientTick);
+        ClientPlayConnectionEvents.JOIN.register((handler, sender, joinedClient) -> onServerJoined(joinedClient));
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, leftClient) -> currentServerId = "unknown");
 
         WorldRenderEvents.END.register(context -> {
             PingRenderUtil.renderWorldPings(
                 context.camera(),
                 client,
-                pingManager.activePings(System.currentTimeMillis(), partyState.serverId(), PingRenderUtil.currentDimensionKey(client)),
+                visiblePings(client),
                 config
             );
         });
 
         HudRenderCallback.EVENT.register((drawContext, tickDelta) -> {
+            updatePingWheel(client);
             if (isPingWheelOpen) {
                 PingRenderUtil.renderPingSelectionOverlay(drawContext, client, selectedPingType);
             }
+            if (partyState.inParty()) {
+                PingRenderUtil.renderRelayStatus(drawContext, client, relayClient.connectionState());
+            }
         });
     }
 
@@ -93,83 +124,179 @@ public class PingClientMod implements ClientModInitializer {
     public static PingClientMod instance() {
         return INSTANCE;
     }
+
+    /** Server id of the current connection, as resolved when it was joined. */
+    public String currentServerId() {
+        return currentServerId;
+    }
+
+    /**
+     * Interned handle of the current dimension. Only re-resolved when the client
+     * world instance changes, so the per-frame render query never builds the key string.
+     */
+    public int currentDimensionHandle(MinecraftClient client) {
+        ClientWorld world = client.world;
+        if (world != dimensionHandleWorld) {
+            dimensionHandleWorld = world;
+            dimensionHandle = world == null
+                ? IdInterner.NO_HANDLE
+                : IdInterner.DIMENSIONS.intern(PingRenderUtil.currentDimensionKey(client));
+        }
+        return dimensionHandle;
+    }
+
+    /**
+     * Pings to draw this frame. Refills a buffer owned by the mod, so callers on the
+     * render thread must not keep the returned list beyond the current frame.
+     */
+    public List<PingRecord> visiblePings(MinecraftClient client) {
+        pingManager.collectActive(
+            System.currentTimeMillis(),
+            partyState.serverHandle(),
+            currentDimensionHandle(client),
+            visiblePings
+        );
+        return visiblePings;
+    }
     
     public boolean isPingWheelOpen() {
         return isPingWheelOpen;
     }
 
     public boolean isPingKeyDown() {
-        if (pingKeyDown) {
-            return true;
-        }
-        if (pingKey == null) {
-            return false;
-        }
+        return pingKeyDown || pingKeyHeld.get();
+    }
 
-        MinecraftClient client = MinecraftClient.getInstance();
-        if (client == null || client.getWindow() == null) {
-            return false;
+    /** Called by KeyBindingBoundKeyMixin whenever any key binding is rebound. */
+    public void onKeyBindingRebound(KeyBinding keyBinding) {
+        if (keyBinding == pingKey) {
+            boundPingKey = KeyBindingHelper.getBoundKeyOf(pingKey);
         }
+    }
 
+    /**
+     * Puts our handlers in front of vanilla's GLFW key and mouse button callbacks. The ping
+     * key is matched against its physical key here rather than through KeyBinding.setPressed:
+     * vanilla keeps only one binding per key, so with the default middle mouse button pick
+     * block takes the key and the ping binding would never be pressed. Vanilla's callbacks
+     * still run for every event.
+     * <p>
+     * A KeyBinding is only read from the client tick, so a release would wait up to one tick
+     * (50 ms) before the ping goes out, the whole latency budget of a ping on its own. The GLFW
+     * callbacks run from glfwPollEvents at the start of every frame, so the ping is sent in the
+     * frame the key was released in.
+     */
+    private void installPingKeyCallbacks(MinecraftClient client) {
+        boundPingKey = KeyBindingHelper.getBoundKeyOf(pingKey);
         long handle = client.getWindow().getHandle();
-        InputUtil.Key bound = resolveBoundKey(pingKey);
-        if (bound == null) {
-            return false;
-        }
 
-        if (bound.getCategory() == InputUtil.Type.MOUSE) {
-            return GLFW.glfwGetMouseButton(handle, bound.getCode()) == GLFW.GLFW_PRESS;
+        vanillaKeyCallback = GLFW.glfwSetKeyCallback(handle, (window, key, scancode, action, modifiers) -> {
+            if (key == GLFW.GLFW_KEY_UNKNOWN) {
+                onPingKeyInput(client, InputUtil.Type.SCANCODE, scancode, action);
+            } else {
+                onPingKeyInput(client, InputUtil.Type.KEYSYM, key, action);
+            }
+            if (vanillaKeyCallback != null) {
+                vanillaKeyCallback.invoke(window, key, scancode, action, modifiers);
+            }
+        });
+        vanillaMouseButtonCallback = GLFW.glfwSetMouseButtonCallback(handle, (window, button, action, modifiers) -> {
+            onPingKeyInput(client, InputUtil.Type.MOUSE, button, action);
+            if (vanillaMouseButtonCallback != null) {
+                vanillaMouseButtonCallback.invoke(window, button, action, modifiers);
+            }
+        });
+    }
+
+    // Runs on the render thread from glfwPollEvents, so press and release are handled right away.
+    private void onPingKeyInput(MinecraftClient client, InputUtil.Type type, int code, int action) {
+        InputUtil.Key bound = boundPingKey;
+        if (bound == null || bound.getCategory() != type || bound.getCode() != code) {
+            return;
         }
 
-        return GLFW.glfwGetKey(handle, bound.getCode()) == GLFW.GLFW_PRESS;
+        if (action == GLFW.GLFW_PRESS) {
+            // Like vanilla key bindings, a press inside a screen (chat, inventory) does not ping.
+            if (client.currentScreen == null && pingKeyHeld.compareAndSet(false, true)) {
+                onPingKeyPressed(client);
+            }
+        } else if (action == GLFW.GLFW_RELEASE && pingKeyHeld.compareAndSet(true, false)) {
+            if (client.currentScreen == null) {
+                onPingKeyReleased(client);
+            } else {
+                cancelPing(client);
+            }
+        }
     }
 
     private void onClientTick(MinecraftClient client) {
         ensureRelayClientMatchesConfig(client);
-        applyDefaultPartyForCurrentServer();
         relayClient.tick();
+        pingManager.tick(System.currentTimeMillis());
+        PingBenchmark.tick(client, pingManager, config, partyState.serverHandle(), currentDimensionHandle(client));
+        XaeroCompatBridge.reconcile(pingManager.snapshot());
 
         while (partyMenuKey.wasPressed()) {
             LOGGER.info("Opening party menu");
             client.setScreen(new PartyScreen(client, partyState, relayClient));
         }
 
-        boolean pressed = isKeyPhysicallyPressed(pingKey);
-        long now = System.currentTimeMillis();
+        // Keeps the wheel working while the HUD (and with it the per-frame update) is hidden.
+        updatePingWheel(client);
+    }
 
-        // Key just pressed
-        if (pressed && !pingKeyDown) {
-            pingKeyDown = true;
-            pingKeyDownTime = now;
-            isPingWheelOpen = false;
-            savedPingTarget = resolveTargetPos(client);
+    private void onPingKeyPressed(MinecraftClient client) {
+        pingKeyDown = true;
+        pingKeyDownNs = System.nanoTime();
+        isPingWheelOpen = false;
+        savedPingTarget = resolveTargetPos(client);
+    }
+
+    /** Opens the wheel once the hold delay has passed and tracks the selection; runs every frame. */
+    private void updatePingWheel(MinecraftClient client) {
+        if (!pingKeyDown) {
+            return;
+        }
+        if (client.currentScreen != null) {
+            // A screen (chat, inventory) opened while the key was held; its release must not ping.
+            pingKeyHeld.set(false);
+            cancelPing(client);
+            return;
         }
 
-        // Key held logic
-        if (pressed && pingKeyDown) {
-            long holdDuration = now - pingKeyDownTime;
+        if (!isPingWheelOpen && System.nanoTime() - pingKeyDownNs >= SELECTION_DELAY_NS) {
+            openPingWheel(client);
+        }
 
-            if (!isPingWheelOpen && holdDuration >= SELECTION_DELAY_MS) {
-                openPingWheel(client);
-            }
+        if (isPingWheelOpen) {
+            updatePingSelection(client);
+        }
+    }
 
-            if (isPingWheelOpen) {
-                updatePingSelection(client);
-            }
+    private void onPingKeyReleased(MinecraftClient client) {
+        long releasedAtNs = PingLatencyTrace.timestamp();
+        if (!pingKeyDown) {
+            return;
         }
+        pingKeyDown = false;
 
-        // Key released
-        if (!pressed && pingKeyDown) {
-            pingKeyDown = false;
+        if (isPingWheelOpen) {
+            // Selection exactly where the cursor was at release, not as of the last frame.
+            updatePingSelection(client);
+            setPingWheelOpen(client, false);
+            PingType typeToSend = selectedPingType;
+            selectedPingType = PingType.NORMAL;
+            trySendPingAtCrosshair(client, typeToSend, releasedAtNs);
+        } else {
+            trySendPingAtCrosshair(client, PingType.NORMAL, releasedAtNs);
+        }
+    }
 
-            if (isPingWheelOpen) {
-                setPingWheelOpen(client, false);
-                PingType typeToSend = selectedPingType;
-                selectedPingType = PingType.NORMAL;
-                trySendPingAtCrosshair(client, typeToSend);
-            } else {
-                trySendPingAtCrosshair(client, PingType.NORMAL);
-            }
+    private void cancelPing(MinecraftClient client) {
+        pingKeyDown = false;
+        selectedPingType = PingType.NORMAL;
+        if (isPingWheelOpen) {
+            setPingWheelOpen(client, false);
         }
     }
 
@@ -214,7 +341,7 @@ public class PingClientMod implements ClientModInitializer {
         }
     }
 
-    private void trySendPingAtCrosshair(MinecraftClient client, PingType pingType) {
+    private void trySendPingAtCrosshair(MinecraftClient client, PingType pingType, long releasedAtNs) {
         if (client.player == null || client.world == null) {
             LOGGER.warn("Ping aborted: player={} world={}", client.player, client.world);
             return;
@@ -243,7 +370,9 @@ public class PingClientMod implements ClientModInitializer {
         String playerName = client.getSession().getUsername();
 
         pingManager.addPing(playerName, pos, serverId, dimension, pingType);
+        long sendStartNs = PingLatencyTrace.timestamp();
         relayClient.sendPing(pos, dimension, pingType);
+        PingLatencyTrace.pingSent(pingType, releasedAtNs, sendStartNs, PingLatencyTrace.timestamp());
         LOGGER.info("Local ping created sender={} party={} serverId={} type={} pos=({}, {}, {}) dimension={}",
             playerName,
             partyState.partyCode(),
@@ -280,23 +409,25 @@ public class PingClientMod implements ClientModInitializer {
     }
 
     private void ensureRelayClientMatchesConfig(MinecraftClient client) {
-        String desiredRelayUrl = PingConfig.normalizeRelayUrl(config.relayUrl);
-        if (desiredRelayUrl.equals(relayUrlInUse)) {
+        // The snapshot keeps the same normalized string until the config changes, so this is
+        // usually a reference comparison.
+        PingConfig.Snapshot settings = config.snapshot();
+        if (settings.relayUrl().equals(relayUrlInUse)) {
             return;
         }
 
-        if (relayClient != null) {
-            relayClient.close();
-        }
+        relayUrlInUse = settings.relayUrl();
+        relayClient.setRelayUrls(settings.relayUrls());
+        LOGGER.info("Relay URLs changed to {}", relayUrlInUse);
+    }
 
-        relayUrlInUse = desiredRelayUrl;
-        relayClient = new RelayClient(client, pingManager, partyState, relayUrlInUse);
-        LOGGER.info("Relay URL changed. Recreated relay client for {}", relayUrlInUse);
+    private void onServerJoined(MinecraftClient client) {
+        currentServerId = PingRenderUtil.currentServerId(client);
+        applyDefaultPartyForCurrentServer();
     }
 
     private void applyDefaultPartyForCurrentServer() {
-        MinecraftClient client = MinecraftClient.getInstance();
-        String serverId = PingRenderUtil.currentServerId(client);
+        String serverId = currentServerId;
         if ("unknown".equals(serverId)) {
             return;
         }
@@ -345,38 +476,4 @@ public class PingClientMod implements ClientModInitializer {
         }
     }
 
-    private static boolean isKeyPhysicallyPressed(KeyBinding keyBinding) {
-        MinecraftClient client = MinecraftClient.getInstance();
-        if (client == null || client.getWindow() == null) {
-            return false;
-        }
-        long handle = client.getWindow().getHandle();
-        InputUtil.Key bound = resolveBoundKey(keyBinding);
-        if (bound == null) {
-            return false;
-        }
-        if (bound.getCategory() == InputUtil.Type.MOUSE) {
-            return GLFW.glfwGetMouseButton(handle, bound.getCode()) == GLFW.GLFW_PRESS;
-        }
-        return GLFW.glfwGetKey(handle, bound.getCode()) == GLFW.GLFW_PRESS;
-    }
-
-    private static InputUtil.Key resolveBoundKey(KeyBinding keyBinding) {
-        try {
-            return KeyBindingHelper.getBoundKeyOf(keyBinding);
-        } catch (Throwable ignored) {
-        }
-
-        try {
-            Method getBoundKey = KeyBinding.class.getMethod("getBoundKey");
-            Object key = getBoundKey.invoke(keyBinding);
-            if (key instanceof InputUtil.Key inputKey) {
-                return inputKey;
-            }
-        } catch (ReflectiveOperationException ignored) {
-        }
-
-        return null;
-    }
-
 }
@@ -2,80 +2,173 @@ package de.mikov.mcping;
 
 import net.minecraft.util.math.Vec3d;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 public class PingManager {
-    private static final int MAX_PINGS_PER_SENDER = 2;
+    private static final PingRecord[] NO_PINGS = new PingRecord[0];
 
     private final PingConfig config;
-    private final List<PingRecord> pings = new ArrayList<>();
+    private final Set<PingRecord> pings = new LinkedHashSet<>();
+    // Min-heap on expiresAtMs. Pings evicted early stay here until their deadline
+    // (lazy deletion) and are skipped when polled; see compactExpiryQueue.
+    private final PriorityQueue<PingRecord> expiryQueue = new PriorityQueue<>(Comparator.comparingLong(PingRecord::expiresAtMs));
+    // Live pings per normalized sender, oldest first; bounded by the per-sender cap.
+    private final Map<String, ArrayDeque<PingRecord>> pingsBySender = new HashMap<>();
+    // Copy of {@code pings} republished after every write, read lock-free by the render path.
+    private volatile PingRecord[] snapshot = NO_PINGS;
 
     public PingManager(PingConfig config) {
         this.config = config;
     }
 
-    public synchronized void addPing(String sender, Vec3d pos, String serverId, String dimension) {
+    public void addPing(String sender, Vec3d pos, String serverId, String dimension) {
         addPing(sender, pos, serverId, dimension, PingType.NORMAL);
     }
 
-    public synchronized void addPing(String sender, Vec3d pos, String serverId, String dimension, PingType type) {
-        pruneExpired(System.currentTimeMillis());
+    public void addPing(String sender, Vec3d pos, String serverId, String dimension, PingType type) {
+        addPing(sender, pos, IdInterner.SERVER_IDS.intern(serverId), IdInterner.DIMENSIONS.intern(dimension), type);
+    }
+
+    public synchronized void addPing(String sender, Vec3d pos, int serverHandle, int dimensionHandle, PingType type) {
+        String dimension = dimensionHandle == IdInterner.NO_HANDLE ? null : IdInterner.DIMENSIONS.valueOf(dimensionHandle);
+        if (insert(sender, pos, serverHandle, dimensionHandle, dimension, type, System.currentTimeMillis())) {
+            compactExpiryQueue();
+            publish();
+        }
+    }
+
+    /** Adds a batch of relayed pings under one lock acquisition and a single snapshot publish. */
+    public synchronized void addPings(List<IncomingPing> batch) {
+        long nowMs = System.currentTimeMillis();
+        boolean addedAny = false;
+        for (IncomingPing ping : batch) {
+            addedAny |= insert(ping.sender(), ping.position(), ping.serverHandle(), ping.dimensionHandle(), ping.dimension(), ping.type(), nowMs);
+        }
+        if (addedAny) {
+            compactExpiryQueue();
+            publish();
+        }
+    }
+
+    private boolean insert(String sender, Vec3d pos, int serverHandle, int dimensionHandle, String dimension, PingType type, long nowMs) {
+        if (serverHandle == IdInterner.NO_HANDLE || dimension == null) {
+            return false;
+        }
 
-        int sameSenderCount = 0;
-        int oldestSameSenderIndex = -1;
-        long oldestSameSenderExpiresAt = Long.MAX_VALUE;
         String senderKey = normalizeSenderKey(sender);
+        ArrayDeque<PingRecord> senderPings = pingsBySender.computeIfAbsent(senderKey, key -> new ArrayDeque<>());
+        int maxPerSender = config.maxPingsPerSender();
+        while (senderPings.size() >= maxPerSender) {
+            PingRecord evicted = senderPings.pollFirst();
+            pings.remove(evicted);
+        }
 
-        for (int index = 0; index < pings.size(); index++) {
-            PingRecord existing = pings.get(index);
-            if (!normalizeSenderKey(existing.sender()).equals(senderKey)) {
-                continue;
-            }
+        long expiresAt = nowMs + config.pingLifetimeMs();
+        PingRecord added = new PingRecord(sender, senderKey, pos, serverHandle, dimensionHandle, dimension, type, expiresAt);
+        pings.add(added);
+        senderPings.addLast(added);
+        expiryQueue.add(added);
+        return true;
+    }
 
-            sameSenderCount++;
-            if (existing.expiresAtMs() < oldestSameSenderExpiresAt) {
-                oldestSameSenderExpiresAt = existing.expiresAtMs();
-                oldestSameSenderIndex = index;
+    /**
+     * Fills {@code out} with the live pings of the given server and dimension.
+     * Reads the last published snapshot, so the per-frame render path neither takes
+     * the manager lock nor allocates once {@code out} has grown to size.
+     */
+    public void collectActive(long nowMs, int currentServerHandle, int currentDimensionHandle, List<PingRecord> out) {
+        out.clear();
+        if (currentDimensionHandle == IdInterner.NO_HANDLE) {
+            return;
+        }
+        String currentDimension = IdInterner.DIMENSIONS.valueOf(currentDimensionHandle);
+        for (PingRecord ping : snapshot) {
+            if (ping.serverHandle() == currentServerHandle
+                    && isInDimension(ping, currentDimensionHandle, currentDimension)
+                    && !ping.expired(nowMs)) {
+                out.add(ping);
             }
         }
+    }
 
-        if (sameSenderCount >= MAX_PINGS_PER_SENDER && oldestSameSenderIndex >= 0) {
-            PingRecord removed = pings.remove(oldestSameSenderIndex);
-            XaeroCompatBridge.removePing(removed);
+    // Pings that arrived before this client loaded their dimension carry no handle; those few
+    // are compared by key.
+    private static boolean isInDimension(PingRecord ping, int dimensionHandle, String dimension) {
+        if (ping.dimensionHandle() != IdInterner.NO_HANDLE) {
+            return ping.dimensionHandle() == dimensionHandle;
         }
+        return ping.dimension().equals(dimension);
+    }
 
-        long expiresAt = System.currentTimeMillis() + config.pingLifetimeMs();
-        PingRecord added = new PingRecord(sender, pos, serverId, dimension, type, expiresAt);
-        pings.add(added);
-        XaeroCompatBridge.upsertPing(added);
+    /**
+     * The last published set of live pings, across all servers and dimensions. A new array
+     * is published on every change, so callers may compare by identity; never modify it.
+     */
+    public PingRecord[] snapshot() {
+        return snapshot;
     }
 
-    public synchronized List<PingRecord> activePings(long nowMs, String currentServerId, String currentDimension) {
+    /** Drops expired pings. Called once per client tick; costs O(expired log n). */
+    public synchronized void tick(long nowMs) {
         pruneExpired(nowMs);
+    }
 
-        List<PingRecord> filtered = new ArrayList<>();
-        for (PingRecord ping : pings) {
-            if (ping.dimension().equals(currentDimension) && ping.serverId().equals(currentServerId)) {
-                filtered.add(ping);
+    private void pruneExpired(long nowMs) {
+        boolean removedAny = false;
+        PingRecord next;
+        while ((next = expiryQueue.peek()) != null && next.expired(nowMs)) {
+            expiryQueue.poll();
+            if (pings.remove(next)) {
+                removeFromSender(next);
+                removedAny = true;
             }
         }
-        return filtered;
+        if (removedAny) {
+            publish();
+        }
     }
 
-    private void pruneExpired(long nowMs) {
-        Iterator<PingRecord> iterator = pings.iterator();
-        while (iterator.hasNext()) {
-            PingRecord ping = iterator.next();
-            if (ping.expired(nowMs)) {
-                XaeroCompatBridge.removePing(ping);
-                iterator.remove();
-            }
+    private void removeFromSender(PingRecord ping) {
+        String senderKey = ping.senderKey();
+        ArrayDeque<PingRecord> senderPings = pingsBySender.get(senderKey);
+        if (senderPings == null) {
+            return;
+        }
+        if (senderPings.peekFirst() == ping) {
+            senderPings.pollFirst();
+        } else {
+            senderPings.remove(ping);
         }
+        if (senderPings.isEmpty()) {
+            pingsBySender.remove(senderKey);
+        }
+    }
+
+    private void compactExpiryQueue() {
+        if (expiryQueue.size() <= 2 * pings.size() + 64) {
+            return;
+        }
+        expiryQueue.clear();
+        expiryQueue.addAll(pings);
+    }
+
+    private void publish() {
+        snapshot = pings.toArray(NO_PINGS);
     }
 
     private static String normalizeSenderKey(String sender) {
-        return sender == null ? "" : sender.trim().toLowerCase();
+        return sender == null ? "" : sender.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /** A ping decoded off the client thread, waiting to be added in the next tick's batch. */
+    public record IncomingPing(String sender, Vec3d position, int serverHandle, int dimensionHandle, String dimension, PingType type) {
     }
 }
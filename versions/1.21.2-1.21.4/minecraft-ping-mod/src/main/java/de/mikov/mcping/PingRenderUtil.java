@@ -5,6 +5,7 @@ import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.font.TextRenderer;
 import net.minecraft.client.gui.DrawContext;
 import net.minecraft.client.render.BufferBuilder;
+import net.minecraft.client.render.BuiltBuffer;
 import net.minecraft.client.render.BufferRenderer;
 import net.minecraft.client.render.Camera;
 import net.minecraft.client.gl.ShaderProgramKeys;
@@ -22,6 +23,7 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
@@ -35,25 +37,13 @@ import java.util.Map;
  */
 public class PingRenderUtil {
 
-    private static final int RGB_RED    = 0xFF3333;
-    private static final int RGB_GREEN  = 0x5BC236;
-    private static final int RGB_BLUE   = 0x4AA3FF;
-
-    private static final int[] PRIMARY_PLAYER_COLORS = {
-        RGB_RED, RGB_GREEN, RGB_BLUE
-    };
-
-    private static final int[] EXTRA_PLAYER_COLORS = {
-        0xFFD400, 0xFF8A65, 0xBA68C8, 0xF06292,
-        0x26C6DA, 0xAED581, 0xFFB74D, 0xE57373
-    };
-
     private static final Map<String, Integer> ASSIGNED_PLAYER_COLORS = new LinkedHashMap<>();
 
     // ── Pixel-art bitmap font ───────────────────────────────────────────────
     // Each entry: {width, row0, row1, row2, row3, row4}.
     // Rows are bitmasks; bit (width-1-col) = pixel at column col.
-    // Glyphs are 3px wide (digits/letters) or 5px wide (M, N, W, m).
+    // Glyphs are 3px wide (digits/letters) or 5px wide (M, N, W).
+    // Lower case is folded to upper case before the lookup, so only upper case has glyphs.
     private static final int[][] GLYPH = new int[128][];
     static {
         GLYPH['0'] = new int[]{3, 7,5,5,5,7};
@@ -92,13 +82,37 @@ public class PingRenderUtil {
         GLYPH['X'] = new int[]{3, 5,5,2,5,5};
         GLYPH['Y'] = new int[]{3, 5,5,7,2,2};
         GLYPH['Z'] = new int[]{3, 7,1,2,4,7};
-        GLYPH['m'] = new int[]{5, 0,27,21,21,17};
         GLYPH['.'] = new int[]{1, 0,0,0,0,1};
         GLYPH['-'] = new int[]{3, 0,0,7,0,0};
         GLYPH['_'] = new int[]{3, 0,0,0,0,7};
         GLYPH[' '] = new int[]{2, 0,0,0,0,0};
     }
 
+    /**
+     * Prebuilt quads for a glyph or a laid-out string: {x1, y1, x2, y2} per quad in
+     * local billboard pixels, the first {@code shadowQuads} being the shadow copy.
+     */
+    private record TextMesh(float width, float[] quads, int shadowQuads) {}
+
+    private static final TextMesh EMPTY_MESH = new TextMesh(0, new float[0], 0);
+
+    // GLYPH merged into rectangles once, so labels never bit-test per frame.
+    private static final TextMesh[] GLYPH_MESH = new TextMesh[128];
+    static {
+        for (int c = 0; c < GLYPH.length; c++) {
+            if (GLYPH[c] != null) GLYPH_MESH[c] = buildGlyphMesh(GLYPH[c]);
+        }
+    }
+
+    // Sender names change rarely; their colour key and laid-out mesh are cached by raw name.
+    private record SenderEntry(String colorKey, TextMesh layout) {}
+
+    private static final int MAX_CACHED_SENDERS = 512;
+    private static final Map<String, SenderEntry> SENDERS = new HashMap<>();
+
+    // Distance labels by whole metre, filled on first use.
+    private static final TextMesh[] DISTANCE_LAYOUTS = new TextMesh[1024];
+
     private PingRenderUtil() {
     }
 
@@ -123,11 +137,14 @@ public class PingRenderUtil {
                                          List<PingRecord> pings, PingConfig config) {
         PlayerEntity player = client.player;
         if (player == null || pings.isEmpty()) return;
+        long benchmarkStartNs = PingBenchmark.frameStart();
 
         Vec3d cameraPos = camera.getPos();
         String ownPlayerName = client.getSession() != null
                 ? client.getSession().getUsername() : "";
-        float pingScale = config.pingScale();
+        // One read per frame; the settings are rebuilt by PingConfig whenever it changes.
+        PingRenderSettings settings = config.renderSettings();
+        float pingScale = settings.pingScale;
 
         // Camera forward direction in world space for behind-camera culling.
         // camera.getRotation() maps camera-local → world, and camera looks
@@ -157,6 +174,11 @@ public class PingRenderUtil {
         RenderSystem.defaultBlendFunc();
         RenderSystem.disableCull();
 
+        // Every billboard and label of the frame goes into one buffer and one draw call.
+        Tessellator tess = Tessellator.getInstance();
+        BufferBuilder buf = tess.begin(VertexFormat.DrawMode.QUADS,
+                                        VertexFormats.POSITION_COLOR);
+
         for (PingRecord ping : pings) {
             double dx = ping.position().x - cameraPos.x;
             double dy = ping.position().y - cameraPos.y;
@@ -188,41 +210,49 @@ public class PingRenderUtil {
             matrices.scale(worldScale, -worldScale, worldScale);
 
             Matrix4f posMatrix = matrices.peek().getPositionMatrix();
-            int senderColor = resolvePingColorArgb(ping.sender(), ownPlayerName, config);
+            SenderEntry sender = senderEntry(ping.sender());
+            int senderColor = resolvePingColorArgb(ping.sender(), sender, ownPlayerName, settings);
 
-            // Icon (all Tessellator-based, no TextRenderer)
+            // Icon (appended to the shared frame buffer, no TextRenderer)
             if (ping.type() == PingType.WARNING) {
-                drawWarningBillboard(posMatrix, senderColor);
+                drawWarningBillboard(posMatrix, buf, senderColor);
             } else if (ping.type() == PingType.GO) {
-                drawGoBillboard(posMatrix, senderColor);
+                drawGoBillboard(posMatrix, buf, senderColor);
             } else {
-                drawNormalBillboard(posMatrix, senderColor);
+                drawNormalBillboard(posMatrix, buf, senderColor);
             }
 
             // Distance label (pixel-art bitmap font)
-            String distText = String.format(Locale.ROOT, "%.0fm", distance);
-            drawBitmapString(posMatrix, distText, 6, 0xFFFFFFFF, 0xFF3F3F3F);
+            drawDistanceLabel(posMatrix, buf, Math.round(distance), 6, 0xFFFFFFFF, 0xFF3F3F3F);
 
             // Sender name
-            if (config.showSenderName) {
-                drawBitmapString(posMatrix, ping.sender().toUpperCase(Locale.ROOT),
-                    14, 0xFFBFBFBF, 0xFF2F2F2F);
+            if (settings.showSenderName) {
+                drawTextMesh(posMatrix, buf, sender.layout(),
+                    0, 14, 0xFFBFBFBF, 0xFF2F2F2F);
             }
 
             matrices.pop();
         }
 
+        BuiltBuffer built = buf.endNullable();
+        if (built != null) {
+            RenderSystem.setShader(MinecraftClient.getInstance().getShaderLoader().getOrCreateProgram(ShaderProgramKeys.POSITION_COLOR));
+            BufferRenderer.drawWithGlobalProgram(built);
+        }
+
         // Restore GL state + model-view matrix
         RenderSystem.depthMask(true);
         RenderSystem.enableDepthTest();
         RenderSystem.enableCull();
         RenderSystem.disableBlend();
         RenderSystem.getModelViewMatrix().set(savedModelView);
+
+        PingBenchmark.frameEnd(benchmarkStartNs, pings.size());
     }
 
     // ── Billboard icon drawing ──────────────────────────────────────────────
 
-    private static void drawNormalBillboard(Matrix4f m, int senderColor) {
+    private static void drawNormalBillboard(Matrix4f m, BufferBuilder buf, int senderColor) {
         int cY = -4;
         int r = (senderColor >> 16) & 0xFF;
         int g = (senderColor >>  8) & 0xFF;
@@ -237,11 +267,6 @@ public class PingRenderUtil {
         int sc    = senderColor | 0xFF000000;
         int black = 0xFF000000;
 
-        RenderSystem.setShader(MinecraftClient.getInstance().getShaderLoader().getOrCreateProgram(ShaderProgramKeys.POSITION_COLOR));
-        Tessellator tess = Tessellator.getInstance();
-        BufferBuilder buf = tess.begin(VertexFormat.DrawMode.QUADS,
-                                        VertexFormats.POSITION_COLOR);
-
         // Outer outline
         bFill(m, buf, -1, cY - 3,  2, cY - 2, outline);
         bFill(m, buf, -1, cY + 3,  2, cY + 4, outline);
@@ -271,19 +296,12 @@ public class PingRenderUtil {
 
         // Centre dot
         bFill(m, buf,  0, cY,  1, cY + 1, black);
-
-        BufferRenderer.drawWithGlobalProgram(buf.end());
     }
 
-    private static void drawWarningBillboard(Matrix4f m, int senderColor) {
+    private static void drawWarningBillboard(Matrix4f m, BufferBuilder buf, int senderColor) {
         int sc    = senderColor | 0xFF000000;
         int black = 0xFF101010;
 
-        RenderSystem.setShader(MinecraftClient.getInstance().getShaderLoader().getOrCreateProgram(ShaderProgramKeys.POSITION_COLOR));
-        Tessellator tess = Tessellator.getInstance();
-        BufferBuilder buf = tess.begin(VertexFormat.DrawMode.QUADS,
-                                        VertexFormats.POSITION_COLOR);
-
         bFill(m, buf,  0, -9,  1, -8, sc);
         bFill(m, buf, -1, -8,  2, -7, sc);
         bFill(m, buf, -1, -7,  2, -6, sc);
@@ -295,18 +313,11 @@ public class PingRenderUtil {
 
         bFill(m, buf,  0, -7,  1, -4, black);
         bFill(m, buf,  0, -3,  1, -2, black);
-
-        BufferRenderer.drawWithGlobalProgram(buf.end());
     }
 
-    private static void drawGoBillboard(Matrix4f m, int senderColor) {
+    private static void drawGoBillboard(Matrix4f m, BufferBuilder buf, int senderColor) {
         int sc = senderColor | 0xFF000000;
 
-        RenderSystem.setShader(MinecraftClient.getInstance().getShaderLoader().getOrCreateProgram(ShaderProgramKeys.POSITION_COLOR));
-        Tessellator tess = Tessellator.getInstance();
-        BufferBuilder buf = tess.begin(VertexFormat.DrawMode.QUADS,
-                                        VertexFormats.POSITION_COLOR);
-
         // Mast (Gleiche Farbe wie Flagge, Mast x=0)
         bFill(m, buf, 0, -9, 1, -1, sc);
 
@@ -330,80 +341,164 @@ public class PingRenderUtil {
         bFill(m, buf, 1, -5, 7, -4, sc); // row 5
         
         bFill(m, buf, 3, -4, 5, -3, sc); // row 6
-
-        BufferRenderer.drawWithGlobalProgram(buf.end());
     }
 
     // ── Pixel-art text rendering ────────────────────────────────────────────
 
+    /** Emit a prebuilt mesh at (x, y): shadow quads in {@code shadow}, the rest in {@code fg}. */
+    private static void drawTextMesh(Matrix4f m, BufferBuilder buf, TextMesh mesh,
+                                      float x, float y, int fg, int shadow) {
+        float[] q = mesh.quads();
+        int shadowEnd = mesh.shadowQuads() * 4;
+        for (int i = 0; i < q.length; i += 4) {
+            bFill(m, buf, x + q[i], y + q[i + 1], x + q[i + 2], y + q[i + 3],
+                  i < shadowEnd ? shadow : fg);
+        }
+    }
+
     /**
-     * Draw a string as pixel-art quads, horizontally centred around x=0.
-     * Uses the static {@code GLYPH} table.  Lowercase a-z is mapped to
-     * uppercase; unknown characters are skipped with a small gap.
-     *
-     * @param m       position matrix (already has billboard + scale baked in)
-     * @param text    the text to render
-     * @param y       Y offset in local billboard coords (positive = down)
-     * @param fg      foreground ARGB colour
-     * @param shadow  shadow ARGB colour (drawn at +1,+1 offset)
+     * Draw "{metres}m" without building a string: nearby distances come from a
+     * per-metre layout cache, farther ones are emitted digit by digit.
      */
-    private static void drawBitmapString(Matrix4f m, String text, float y,
-                                          int fg, int shadow) {
-        if (text == null || text.isEmpty()) return;
+    private static void drawDistanceLabel(Matrix4f m, BufferBuilder buf, long metres, float y,
+                                           int fg, int shadow) {
+        if (metres < DISTANCE_LAYOUTS.length) {
+            int index = (int) Math.max(0, metres);
+            TextMesh layout = DISTANCE_LAYOUTS[index];
+            if (layout == null) {
+                layout = layoutBitmapString(index + "m");
+                DISTANCE_LAYOUTS[index] = layout;
+            }
+            drawTextMesh(m, buf, layout, 0, y, fg, shadow);
+            return;
+        }
+
+        TextMesh unit = GLYPH_MESH['M'];
+        long divisor = 1;
+        float totalW = unit.width();
+        while (true) {
+            totalW += GLYPH_MESH['0' + (int) (metres / divisor % 10)].width() + 1;
+            if (metres / divisor < 10) break;
+            divisor *= 10;
+        }
 
-        float totalW = bitmapStringWidth(text);
         float x = -totalW / 2f;
+        for (; divisor > 0; divisor /= 10) {
+            TextMesh digit = GLYPH_MESH['0' + (int) (metres / divisor % 10)];
+            drawTextMesh(m, buf, digit, x, y, fg, shadow);
+            x += digit.width() + 1;
+        }
+        drawTextMesh(m, buf, unit, x, y, fg, shadow);
+    }
 
-        RenderSystem.setShader(MinecraftClient.getInstance().getShaderLoader().getOrCreateProgram(ShaderProgramKeys.POSITION_COLOR));
-        Tessellator tess = Tessellator.getInstance();
-        BufferBuilder buf = tess.begin(VertexFormat.DrawMode.QUADS,
-                                        VertexFormats.POSITION_COLOR);
+    private static SenderEntry senderEntry(String sender) {
+        SenderEntry entry = SENDERS.get(sender);
+        if (entry == null) {
+            if (SENDERS.size() >= MAX_CACHED_SENDERS) SENDERS.clear();
+            String colorKey = sender == null ? "" : sender.trim().toLowerCase(Locale.ROOT);
+            entry = new SenderEntry(colorKey, layoutBitmapString(sender));
+            SENDERS.put(sender, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Lay out a whole string once, centred around x=0, as a single mesh.
+     * All shadow quads come first; a glyph's shadow never reaches the next
+     * glyph's pixels, so this draws the same as the per-glyph order.
+     */
+    private static TextMesh layoutBitmapString(String text) {
+        if (text == null || text.isEmpty()) return EMPTY_MESH;
+
+        int shadowQuads = 0;
+        for (int i = 0; i < text.length(); i++) {
+            TextMesh glyph = glyphMesh(text.charAt(i));
+            if (glyph != null) shadowQuads += glyph.shadowQuads();
+        }
 
+        float totalW = bitmapStringWidth(text);
+        float x = -totalW / 2f;
+        float[] quads = new float[shadowQuads * 8];
+        int shadowAt = 0;
+        int fgAt = shadowQuads * 4;
         for (int i = 0; i < text.length(); i++) {
-            char c = text.charAt(i);
-            if (c >= 'a' && c <= 'z') c = (char)(c - 32);
-            int[] glyph = (c < 128) ? GLYPH[c] : null;
+            TextMesh glyph = glyphMesh(text.charAt(i));
             if (glyph == null) { x += 4; continue; }
-            int w = glyph[0];
-
-            // Shadow pass (+1, +1)
-            for (int row = 0; row < 5; row++) {
-                int bits = glyph[1 + row];
-                for (int col = 0; col < w; col++) {
-                    if ((bits & (1 << (w - 1 - col))) != 0) {
-                        bFill(m, buf, x + col + 1, y + row + 1,
-                                      x + col + 2, y + row + 2, shadow);
-                    }
-                }
-            }
-            // Foreground pass
-            for (int row = 0; row < 5; row++) {
-                int bits = glyph[1 + row];
-                for (int col = 0; col < w; col++) {
-                    if ((bits & (1 << (w - 1 - col))) != 0) {
-                        bFill(m, buf, x + col, y + row,
-                                      x + col + 1, y + row + 1, fg);
-                    }
-                }
+            float[] q = glyph.quads();
+            int split = glyph.shadowQuads() * 4;
+            for (int k = 0; k < q.length; k += 4) {
+                int at = k < split ? shadowAt : fgAt;
+                quads[at]     = x + q[k];
+                quads[at + 1] = q[k + 1];
+                quads[at + 2] = x + q[k + 2];
+                quads[at + 3] = q[k + 3];
+                if (k < split) shadowAt += 4; else fgAt += 4;
             }
-            x += w + 1;
+            x += glyph.width() + 1;
         }
-
-        BufferRenderer.drawWithGlobalProgram(buf.end());
+        return new TextMesh(totalW, quads, shadowQuads);
     }
 
     private static float bitmapStringWidth(String text) {
         float w = 0;
         for (int i = 0; i < text.length(); i++) {
-            char c = text.charAt(i);
-            if (c >= 'a' && c <= 'z') c = (char)(c - 32);
-            int[] glyph = (c < 128) ? GLYPH[c] : null;
+            TextMesh glyph = glyphMesh(text.charAt(i));
             if (glyph == null) { w += 4; continue; }
-            w += glyph[0] + 1;
+            w += glyph.width() + 1;
         }
         return w > 0 ? w - 1 : 0;
     }
 
+    private static TextMesh glyphMesh(char c) {
+        if (c >= 'a' && c <= 'z') c = (char)(c - 32);
+        return (c < 128) ? GLYPH_MESH[c] : null;
+    }
+
+    /**
+     * Turn one {@code GLYPH} entry into merged rectangles: lit pixels in a row
+     * become one run, and a run continues the rectangle above it when both
+     * span the same columns.  The shadow copy (+1,+1) is emitted first.
+     */
+    private static TextMesh buildGlyphMesh(int[] glyph) {
+        int w = glyph[0];
+        List<int[]> rects = new ArrayList<>();   // {x1, y1, x2, y2}
+        List<int[]> open  = new ArrayList<>();   // rects ending on the previous row
+        for (int row = 0; row < 5; row++) {
+            int bits = glyph[1 + row];
+            List<int[]> stillOpen = new ArrayList<>();
+            int col = 0;
+            while (col < w) {
+                if ((bits & (1 << (w - 1 - col))) == 0) { col++; continue; }
+                int start = col;
+                while (col < w && (bits & (1 << (w - 1 - col))) != 0) col++;
+
+                int[] rect = null;
+                for (int[] above : open) {
+                    if (above[0] == start && above[2] == col) { rect = above; break; }
+                }
+                if (rect != null) {
+                    rect[3] = row + 1;
+                } else {
+                    rect = new int[]{start, row, col, row + 1};
+                    rects.add(rect);
+                }
+                stillOpen.add(rect);
+            }
+            open = stillOpen;
+        }
+
+        int n = rects.size();
+        float[] quads = new float[n * 8];
+        for (int i = 0; i < n; i++) {
+            int[] r = rects.get(i);
+            int s = i * 4;
+            int f = (n + i) * 4;
+            quads[s] = r[0] + 1; quads[s + 1] = r[1] + 1; quads[s + 2] = r[2] + 1; quads[s + 3] = r[3] + 1;
+            quads[f] = r[0];     quads[f + 1] = r[1];     quads[f + 2] = r[2];     quads[f + 3] = r[3];
+        }
+        return new TextMesh(w, quads, n);
+    }
+
     // ── Tessellator helper ──────────────────────────────────────────────────
 
     /** Add a coloured rectangle (one quad = 4 vertices) to the buffer. */
@@ -421,7 +516,22 @@ public class PingRenderUtil {
 
     private static double sq(double v) { return v * v; }
 
-    // ── HUD rendering (ping selection overlay only) ─────────────────────────
+    // ── HUD rendering (ping selection overlay, relay status) ────────────────
+
+    private static final String[] RELAY_STATUS_TEXT = new String[RelayClient.ConnectionState.values().length];
+    static {
+        for (RelayClient.ConnectionState state : RelayClient.ConnectionState.values()) {
+            RELAY_STATUS_TEXT[state.ordinal()] = "Party relay: " + state.label();
+        }
+    }
+
+    /** Top-left notice while the relay is not connected; pings are not shared until it is. */
+    public static void renderRelayStatus(DrawContext drawContext, MinecraftClient client,
+                                         RelayClient.ConnectionState state) {
+        if (state == RelayClient.ConnectionState.CONNECTED) return;
+        drawContext.drawTextWithShadow(client.textRenderer, RELAY_STATUS_TEXT[state.ordinal()],
+            4, 4, 0xFFFFAA00);
+    }
 
     public static void renderPingSelectionOverlay(DrawContext drawContext,
                                                    MinecraftClient client,
@@ -462,34 +572,24 @@ public class PingRenderUtil {
 
     // ── Colour resolution ───────────────────────────────────────────────────
 
-    private static int resolvePingColorArgb(String sender, String ownPlayerName,
-                                             PingConfig config) {
-        int ownColor = config.pingColorArgb();
-        if (!config.playerColorsEnabled) return ownColor;
+    private static int resolvePingColorArgb(String sender, SenderEntry entry, String ownPlayerName,
+                                             PingRenderSettings settings) {
+        int ownColor = settings.pingColorArgb;
+        if (!settings.playerColorsEnabled) return ownColor;
         if (sender == null || sender.isBlank()) return ownColor;
         if (sender.equalsIgnoreCase(ownPlayerName)) return ownColor;
 
-        String key = sender.trim().toLowerCase(Locale.ROOT);
+        String key = entry.colorKey();
         Integer assigned = ASSIGNED_PLAYER_COLORS.get(key);
-        if (assigned != null) return 0xFF000000 | (assigned & 0x00FFFFFF);
+        if (assigned != null) return assigned;
 
-        List<Integer> candidates = buildCandidateColors(config.pingColorRgb);
-        if (candidates.isEmpty()) return ownColor;
+        int candidates = settings.playerColorCount();
+        if (candidates == 0) return ownColor;
 
-        int picked = candidates.get(
-            Math.floorMod(ASSIGNED_PLAYER_COLORS.size(), candidates.size()));
+        int picked = settings.playerColorArgb(
+            Math.floorMod(ASSIGNED_PLAYER_COLORS.size(), candidates));
         ASSIGNED_PLAYER_COLORS.put(key, picked);
-        return 0xFF000000 | (picked & 0x00FFFFFF);
-    }
-
-    private static List<Integer> buildCandidateColors(int ownRgb) {
-        int own = ownRgb & 0x00FFFFFF;
-        List<Integer> list = new ArrayList<>();
-        for (int c : PRIMARY_PLAYER_COLORS)
-            if (c != own) list.add(c);
-        for (int c : EXTRA_PLAYER_COLORS)
-            if (c != own && !list.contains(c)) list.add(c);
-        return list;
+        return picked;
     }
 
     // ── Server / dimension helpers ──────────────────────────────────────────
@@ -0,0 +1,143 @@
+package de.mikov.mcping;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks which of the configured relays to use.
+ * <p>
+ * Pings only reach players connected to the same relay, so once a server id is known
+ * every client must land on the same relay for it. That choice is made by rendezvous
+ * hashing of the server id over the relay URLs: it is the same on every client with the
+ * same relay list, sticks to a server id, and when one relay is down only the server
+ * ids that lived on it move elsewhere. Probed round-trip times only decide while no
+ * server id is known (e.g. in the main menu), so {@code RelayClient} only probes then.
+ * Relays that failed recently are skipped until their cool-down ends, unless every relay
+ * has failed. A client that failed over keeps probing its {@link #preferred} relay and
+ * clears the failure as soon as it answers, so its party is not split for the whole cool-down.
+ */
+final class RelaySelector {
+    static final long UNREACHABLE = Long.MAX_VALUE;
+
+    private static final long FAILED_RELAY_COOLDOWN_MS = 60_000L;
+
+    private final List<String> urls;
+    private final Map<String, Long> probedRttMs = new ConcurrentHashMap<>();
+    private final Map<String, Long> failedUntilMs = new ConcurrentHashMap<>();
+
+    RelaySelector(List<String> urls) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("no relay urls");
+        }
+        this.urls = List.copyOf(urls);
+    }
+
+    List<String> urls() {
+        return urls;
+    }
+
+    boolean hasAlternatives() {
+        return urls.size() > 1;
+    }
+
+    void recordProbe(String url, long rttMs) {
+        probedRttMs.put(url, rttMs);
+        if (rttMs == UNREACHABLE) {
+            markFailed(url, System.currentTimeMillis());
+        }
+    }
+
+    void markFailed(String url, long now) {
+        failedUntilMs.put(url, now + FAILED_RELAY_COOLDOWN_MS);
+    }
+
+    void clearFailed(String url) {
+        failedUntilMs.remove(url);
+    }
+
+    boolean isFailed(String url, long now) {
+        return !isAvailable(url, now);
+    }
+
+    /**
+     * The relay every client picks for {@code serverId} while all relays are up, i.e. where
+     * its party meets. Null without a server id.
+     */
+    String preferred(String serverId) {
+        if (serverId == null) {
+            return null;
+        }
+        String best = null;
+        long bestWeight = 0L;
+        for (String url : urls) {
+            long weight = rendezvousWeight(serverId, url);
+            if (best == null || weight > bestWeight) {
+                best = url;
+                bestWeight = weight;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The relay to connect to. With a {@code serverId} this is the {@link #preferred} relay,
+     * or the next one in rendezvous order while it has failed, and probed round-trip times are
+     * ignored. Only without one ({@code null}, e.g. in the main menu) does the lowest probed
+     * round-trip time win.
+     */
+    String select(String serverId, long now) {
+        boolean anyAvailable = false;
+        for (String url : urls) {
+            if (isAvailable(url, now)) {
+                anyAvailable = true;
+                break;
+            }
+        }
+
+        String best = null;
+        long bestScore = 0L;
+        for (String url : urls) {
+            if (anyAvailable && !isAvailable(url, now)) {
+                continue;
+            }
+            long score = serverId == null
+                ? -probedRttMs.getOrDefault(url, UNREACHABLE - 1)
+                : rendezvousWeight(serverId, url);
+            if (best == null || score > bestScore) {
+                best = url;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private boolean isAvailable(String url, long now) {
+        Long until = failedUntilMs.get(url);
+        return until == null || now >= until;
+    }
+
+    // FNV-1a over "serverId\nurl" followed by a 64-bit finalizer, so the weights are spread
+    // evenly and identical on every client.
+    private static long rendezvousWeight(String serverId, String url) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, serverId.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+        hash = (hash ^ '\n') * 0x100000001b3L;
+        hash = fnv(hash, url.getBytes(StandardCharsets.UTF_8));
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long fnv(long hash, byte[] bytes) {
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
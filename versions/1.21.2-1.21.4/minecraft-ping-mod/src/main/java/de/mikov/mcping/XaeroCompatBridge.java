@@ -1,17 +1,23 @@
 package de.mikov.mcping;
 
 import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.client.MinecraftClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 
 public final class XaeroCompatBridge {
     private static final Logger LOGGER = LoggerFactory.getLogger("mcping-xaero-compat");
@@ -19,50 +25,68 @@ public final class XaeroCompatBridge {
     private static final String PING_WARNING_NAME = "Ping Warning";
     private static final String PING_GO_NAME = "Ping Go";
 
-    private static final Map<String, Object> ACTIVE_WAYPOINTS = new ConcurrentHashMap<>();
+    private static final String SESSION_CLASS = "xaero.common.XaeroMinimapSession";
+    // Getter hops from the current Xaero session down to the active waypoint set.
+    private static final String[] CONTEXT_CHAIN = {
+            "getMinimapProcessor", "getSession", "getWorldManager", "getCurrentWorld", "getCurrentWaypointSet"
+    };
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType WAYPOINT_CTOR = MethodType.methodType(
+            Object.class, int.class, int.class, int.class, String.class, String.class, Object.class);
+
+    // Ping -> waypoint currently mirrored into mirroredWaypointSet. Only touched by reconcile().
+    private static final Map<PingRecord, Object> MIRRORED_WAYPOINTS = new IdentityHashMap<>();
+    private static Object mirroredWaypointSet;
+    private static PingRecord[] lastReconciled;
+    // Waypoints we created whose removal failed, so Xaero still holds them; oldest first.
+    // Bounded, and only touched by reconcile().
+    private static final int MAX_STRANDED_WAYPOINTS = 64;
+    private static final ArrayDeque<Object> STRANDED_WAYPOINTS = new ArrayDeque<>();
+    // Identity set of the mirrored and stranded waypoints, republished once per reconcile batch.
+    // The Xaero render hook queries it for every waypoint on every frame.
+    private static volatile Set<Object> ownWaypoints = Collections.emptySet();
 
     private static volatile boolean initialized;
     private static volatile boolean xaeroPresent;
 
-    private static volatile Method waypointSetAddMethod;
-    private static volatile Method waypointSetRemoveMethod;
-    private static volatile Constructor<?> waypointCtor;
-    private static volatile Method waypointColorValueOfMethod;
-    private static volatile Method waypointSetTemporaryMethod;
-    private static volatile Method waypointVisibilityValueOfMethod;
-    private static volatile Method waypointSetVisibilityMethod;
-    private static volatile Method waypointGetNameMethod;
-    private static volatile Method waypointGetXMethod;
-    private static volatile Method waypointGetYMethod;
-    private static volatile Method waypointGetZMethod;
-    private static volatile Method waypointSetGetWaypointsMethod;
+    // Session getter followed by one handle per CONTEXT_CHAIN hop; null until a full walk succeeded.
+    private static volatile MethodHandle[] contextChainHandles;
+    // Waypoint set resolved for the current client world; dropped when the world instance changes.
+    private static volatile WaypointContext cachedContext;
+
+    private static volatile MethodHandle waypointSetAddHandle;
+    private static volatile MethodHandle waypointSetRemoveHandle;
+    private static volatile MethodHandle waypointCtorHandle;
+    private static volatile MethodHandle waypointSetTemporaryHandle;
+    private static volatile MethodHandle waypointSetVisibilityHandle;
+    private static volatile MethodHandle waypointGetNameHandle;
+    private static volatile MethodHandle waypointSetGetWaypointsHandle;
+    private static volatile Map<PingType, Object> waypointColors;
+    private static volatile Object localVisibility;
 
     private XaeroCompatBridge() {
     }
 
+    /**
+     * Whether {@code waypoint} is one this session created for a ping. Matched by identity only,
+     * so a waypoint the player named "Ping" is never hidden.
+     */
     public static boolean isOwnPingWaypoint(Object waypoint) {
-        if (waypoint == null) {
-            return false;
-        }
-
-        if (ACTIVE_WAYPOINTS.containsValue(waypoint)) {
-            return true;
-        }
-
-        if (waypointGetNameMethod == null) {
-            return false;
-        }
-
-        try {
-            String name = String.valueOf(waypointGetNameMethod.invoke(waypoint));
-            return PING_NAME.equals(name) || PING_WARNING_NAME.equals(name) || PING_GO_NAME.equals(name);
-        } catch (IllegalAccessException | InvocationTargetException ignored) {
-            return false;
-        }
+        return waypoint != null && ownWaypoints.contains(waypoint);
     }
 
-    public static void upsertPing(PingRecord ping) {
-        if (ping == null || !ensureXaeroPresent()) {
+    /**
+     * Brings the Xaero waypoint set in line with {@code pings} in one batch. Called once per
+     * client tick with the manager snapshot; does nothing while neither the snapshot nor the
+     * waypoint set changed.
+     * Pings that survive keep their waypoint, and a new ping on the same block with the same
+     * type takes over a dropped ping's waypoint instead of re-creating it.
+     */
+    public static void reconcile(PingRecord[] pings) {
+        if (!ensureXaeroPresent()) {
             return;
         }
 
@@ -71,37 +95,68 @@ public final class XaeroCompatBridge {
             return;
         }
 
-        String key = pingKey(ping);
-        Object existingWaypoint = ACTIVE_WAYPOINTS.remove(key);
-        if (existingWaypoint != null) {
-            removeWaypoint(context, existingWaypoint);
+        if (context.waypointSet() != mirroredWaypointSet) {
+            // New world or waypoint set: take our waypoints out of the old set, then mirror
+            // the current snapshot into the new one even if the snapshot itself is unchanged.
+            if (mirroredWaypointSet != null) {
+                for (Object waypoint : MIRRORED_WAYPOINTS.values()) {
+                    removeWaypoint(mirroredWaypointSet, waypoint);
+                }
+            }
+            MIRRORED_WAYPOINTS.clear();
+            mirroredWaypointSet = context.waypointSet();
+            lastReconciled = null;
         }
 
-        Object newWaypoint = createWaypoint(ping);
-        if (newWaypoint == null) {
+        if (pings == lastReconciled) {
             return;
         }
 
-        if (addWaypoint(context, newWaypoint)) {
-            ACTIVE_WAYPOINTS.put(key, newWaypoint);
+        Map<PingRecord, Object> kept = new IdentityHashMap<>();
+        List<PingRecord> added = new ArrayList<>();
+        for (PingRecord ping : pings) {
+            Object waypoint = MIRRORED_WAYPOINTS.remove(ping);
+            if (waypoint != null) {
+                kept.put(ping, waypoint);
+            } else {
+                added.add(ping);
+            }
         }
-    }
 
-    public static void removePing(PingRecord ping) {
-        if (ping == null || !ensureXaeroPresent()) {
-            return;
+        // Whatever is left in the mirror belongs to pings that are gone; offer those
+        // waypoints for reuse before removing them from Xaero.
+        Map<WaypointSpot, ArrayDeque<Object>> reusable = new HashMap<>();
+        for (Map.Entry<PingRecord, Object> dropped : MIRRORED_WAYPOINTS.entrySet()) {
+            reusable.computeIfAbsent(WaypointSpot.of(dropped.getKey()), spot -> new ArrayDeque<>()).add(dropped.getValue());
+        }
+        MIRRORED_WAYPOINTS.clear();
+
+        boolean createdAny = false;
+        for (PingRecord ping : added) {
+            ArrayDeque<Object> candidates = reusable.get(WaypointSpot.of(ping));
+            Object waypoint = candidates == null ? null : candidates.poll();
+            if (waypoint == null) {
+                waypoint = createWaypoint(ping);
+                if (waypoint == null || !addWaypoint(context, waypoint)) {
+                    continue;
+                }
+                createdAny = true;
+            }
+            kept.put(ping, waypoint);
         }
 
-        WaypointContext context = resolveWaypointContext();
-        if (context == null || !ensureHooksResolved(context)) {
-            return;
+        for (ArrayDeque<Object> unused : reusable.values()) {
+            for (Object waypoint : unused) {
+                removeWaypoint(context.waypointSet(), waypoint);
+            }
         }
 
-        String key = pingKey(ping);
-        Object waypoint = ACTIVE_WAYPOINTS.remove(key);
-        if (waypoint != null) {
-            removeWaypoint(context, waypoint);
+        MIRRORED_WAYPOINTS.putAll(kept);
+        publishOwnWaypoints();
+        if (createdAny) {
+            removeOverlappingDefaultWaypoints(context);
         }
+        lastReconciled = pings;
     }
 
     private static boolean ensureXaeroPresent() {
@@ -127,51 +182,70 @@ public final class XaeroCompatBridge {
     }
 
     private static WaypointContext resolveWaypointContext() {
-        try {
-            Object xaeroSession = invokeStaticNoArg("xaero.common.XaeroMinimapSession", "getCurrentSession");
-            if (xaeroSession == null) {
-                return null;
-            }
+        Object world = MinecraftClient.getInstance().world;
+        WaypointContext cached = cachedContext;
+        if (cached != null && cached.world() == world) {
+            return cached;
+        }
 
-            Object minimapProcessor = invokeNoArg(xaeroSession, "getMinimapProcessor");
-            if (minimapProcessor == null) {
-                return null;
-            }
+        cachedContext = null;
+        if (world == null) {
+            return null;
+        }
 
-            Object minimapSession = invokeNoArg(minimapProcessor, "getSession");
-            if (minimapSession == null) {
-                return null;
-            }
+        Object waypointSet = walkContextChain();
+        if (waypointSet == null) {
+            // Xaero may not have loaded this world yet; retry on the next call.
+            return null;
+        }
 
-            Object worldManager = invokeNoArg(minimapSession, "getWorldManager");
-            if (worldManager == null) {
-                return null;
-            }
+        WaypointContext context = new WaypointContext(world, waypointSet);
+        cachedContext = context;
+        return context;
+    }
 
-            Object currentWorld = invokeNoArg(worldManager, "getCurrentWorld");
-            if (currentWorld == null) {
-                return null;
+    private static Object walkContextChain() {
+        MethodHandle[] chain = contextChainHandles;
+        try {
+            if (chain != null) {
+                Object target = (Object) chain[0].invokeExact();
+                for (int i = 1; i < chain.length && target != null; i++) {
+                    target = (Object) chain[i].invokeExact(target);
+                }
+                return target;
             }
 
-            Object waypointSet = invokeNoArg(currentWorld, "getCurrentWaypointSet");
-            if (waypointSet == null) {
-                return null;
+            // First walk: resolve every hop against the runtime class it is called on.
+            MethodHandle[] resolved = new MethodHandle[CONTEXT_CHAIN.length + 1];
+            Method getCurrentSession = Class.forName(SESSION_CLASS).getMethod("getCurrentSession");
+            resolved[0] = LOOKUP.unreflect(getCurrentSession).asType(MethodType.methodType(Object.class));
+            Object target = (Object) resolved[0].invokeExact();
+            for (int i = 0; i < CONTEXT_CHAIN.length; i++) {
+                if (target == null) {
+                    return null;
+                }
+                resolved[i + 1] = LOOKUP.unreflect(target.getClass().getMethod(CONTEXT_CHAIN[i])).asType(GETTER);
+                target = (Object) resolved[i + 1].invokeExact(target);
             }
 
-            return new WaypointContext(waypointSet);
+            if (target != null) {
+                contextChainHandles = resolved;
+            }
+            return target;
         } catch (Throwable ex) {
+            contextChainHandles = null;
             LOGGER.debug("Failed to resolve Xaero waypoint context: {}", ex.getMessage());
             return null;
         }
     }
 
     private static boolean ensureHooksResolved(WaypointContext context) {
-        if (waypointSetAddMethod != null && waypointSetRemoveMethod != null && waypointCtor != null && waypointColorValueOfMethod != null) {
+        if (waypointSetAddHandle != null && waypointSetRemoveHandle != null && waypointCtorHandle != null && waypointColors != null) {
             return true;
         }
 
         synchronized (XaeroCompatBridge.class) {
-            if (waypointSetAddMethod != null && waypointSetRemoveMethod != null && waypointCtor != null && waypointColorValueOfMethod != null) {
+            if (waypointSetAddHandle != null && waypointSetRemoveHandle != null && waypointCtorHandle != null && waypointColors != null) {
                 return true;
             }
 
@@ -192,42 +266,50 @@ public final class XaeroCompatBridge {
 
                     String methodName = method.getName();
                     if ("add".equals(methodName)) {
-                        waypointSetAddMethod = method;
+                        waypointSetAddHandle = LOOKUP.unreflect(method).asType(SETTER);
                     } else if ("remove".equals(methodName)) {
-                        waypointSetRemoveMethod = method;
+                        waypointSetRemoveHandle = LOOKUP.unreflect(method).asType(SETTER);
                     }
                 }
 
-                waypointCtor = waypointClass.getConstructor(int.class, int.class, int.class, String.class, String.class, waypointColorClass);
-                waypointColorValueOfMethod = waypointColorClass.getMethod("valueOf", String.class);
+                waypointCtorHandle = LOOKUP.unreflectConstructor(
+                        waypointClass.getConstructor(int.class, int.class, int.class, String.class, String.class, waypointColorClass)
+                ).asType(WAYPOINT_CTOR);
+
+                // Enum constants are looked up once instead of per created waypoint.
+                Method colorValueOf = waypointColorClass.getMethod("valueOf", String.class);
+                Map<PingType, Object> colors = new EnumMap<>(PingType.class);
+                for (PingType type : PingType.values()) {
+                    colors.put(type, colorValueOf.invoke(null, colorName(type)));
+                }
+
                 Class<?> visibilityClass = Class.forName("xaero.hud.minimap.waypoint.WaypointVisibilityType");
-                waypointVisibilityValueOfMethod = visibilityClass.getMethod("valueOf", String.class);
+                localVisibility = visibilityClass.getMethod("valueOf", String.class).invoke(null, "LOCAL");
 
                 try {
-                    waypointSetVisibilityMethod = waypointClass.getMethod("setVisibility", visibilityClass);
+                    waypointSetVisibilityHandle = LOOKUP.unreflect(waypointClass.getMethod("setVisibility", visibilityClass)).asType(SETTER);
                 } catch (NoSuchMethodException ignored) {
-                    waypointSetVisibilityMethod = null;
+                    waypointSetVisibilityHandle = null;
                 }
 
                 try {
-                    waypointSetTemporaryMethod = waypointClass.getMethod("setTemporary", boolean.class);
+                    waypointSetTemporaryHandle = LOOKUP.unreflect(waypointClass.getMethod("setTemporary", boolean.class))
+                            .asType(MethodType.methodType(void.class, Object.class, boolean.class));
                 } catch (NoSuchMethodException ignored) {
-                    waypointSetTemporaryMethod = null;
+                    waypointSetTemporaryHandle = null;
                 }
 
-                waypointGetNameMethod = waypointClass.getMethod("getName");
-                waypointGetXMethod = waypointClass.getMethod("getX");
-                waypointGetYMethod = waypointClass.getMethod("getY");
-                waypointGetZMethod = waypointClass.getMethod("getZ");
-                waypointSetGetWaypointsMethod = waypointSetClass.getMethod("getWaypoints");
+                waypointGetNameHandle = LOOKUP.unreflect(waypointClass.getMethod("getName")).asType(GETTER);
+                waypointSetGetWaypointsHandle = LOOKUP.unreflect(waypointSetClass.getMethod("getWaypoints")).asType(GETTER);
 
-                if (waypointSetAddMethod == null || waypointSetRemoveMethod == null) {
+                if (waypointSetAddHandle == null || waypointSetRemoveHandle == null) {
                     LOGGER.warn("Xaero waypoint hooks unresolved: add/remove methods not found on {}", waypointSetClass.getName());
                     return false;
                 }
 
+                waypointColors = colors;
                 return true;
-            } catch (ClassNotFoundException | NoSuchMethodException ex) {
+            } catch (ReflectiveOperationException ex) {
                 LOGGER.warn("Xaero waypoint class resolution failed: {}", ex.getMessage());
                 return false;
             }
@@ -241,127 +323,116 @@ public final class XaeroCompatBridge {
             int z = (int) Math.round(ping.position().z);
 
             String name = switch (ping.type()) {
-                case WARNING -> "Ping Warning";
-                case GO -> "Ping Go";
-                case NORMAL -> "Ping";
+                case WARNING -> PING_WARNING_NAME;
+                case GO -> PING_GO_NAME;
+                case NORMAL -> PING_NAME;
             };
             String initials = switch (ping.type()) {
                 case WARNING -> "!";
                 case GO -> "G";
                 case NORMAL -> "P";
             };
-            String colorName = switch (ping.type()) {
-                case WARNING -> "YELLOW";
-                case GO -> "GREEN";
-                case NORMAL -> "BLUE";
-            };
 
-            Object color = waypointColorValueOfMethod.invoke(null, colorName);
-            Object waypoint = waypointCtor.newInstance(x, y, z, name, initials, color);
+            Object waypoint = (Object) waypointCtorHandle.invokeExact(x, y, z, name, initials, waypointColors.get(ping.type()));
 
-            if (waypointSetTemporaryMethod != null) {
-                waypointSetTemporaryMethod.invoke(waypoint, true);
+            MethodHandle setTemporary = waypointSetTemporaryHandle;
+            if (setTemporary != null) {
+                setTemporary.invokeExact(waypoint, true);
             }
 
-            if (waypointSetVisibilityMethod != null && waypointVisibilityValueOfMethod != null) {
-                Object localVisibility = waypointVisibilityValueOfMethod.invoke(null, "LOCAL");
-                waypointSetVisibilityMethod.invoke(waypoint, localVisibility);
+            MethodHandle setVisibility = waypointSetVisibilityHandle;
+            if (setVisibility != null && localVisibility != null) {
+                setVisibility.invokeExact(waypoint, localVisibility);
             }
 
             return waypoint;
-        } catch (IllegalAccessException | InvocationTargetException | InstantiationException ex) {
+        } catch (Throwable ex) {
             LOGGER.debug("Failed to create Xaero waypoint: {}", ex.getMessage());
             return null;
         }
     }
 
+    private static String colorName(PingType type) {
+        return switch (type) {
+            case WARNING -> "YELLOW";
+            case GO -> "GREEN";
+            case NORMAL -> "BLUE";
+        };
+    }
+
     private static boolean addWaypoint(WaypointContext context, Object waypoint) {
         try {
-            waypointSetAddMethod.invoke(context.waypointSet(), waypoint);
-            removeOverlappingDefaultWaypoints(context, waypoint);
+            waypointSetAddHandle.invokeExact(context.waypointSet(), waypoint);
             return true;
-        } catch (IllegalAccessException | InvocationTargetException ex) {
+        } catch (Throwable ex) {
             LOGGER.debug("Failed to add Xaero waypoint: {}", ex.getMessage());
             return false;
         }
     }
 
-    private static void removeOverlappingDefaultWaypoints(WaypointContext context, Object ownWaypoint) {
-        if (waypointSetGetWaypointsMethod == null || waypointGetNameMethod == null || waypointGetXMethod == null || waypointGetYMethod == null || waypointGetZMethod == null) {
+    private static void removeOverlappingDefaultWaypoints(WaypointContext context) {
+        MethodHandle getWaypoints = waypointSetGetWaypointsHandle;
+        MethodHandle getName = waypointGetNameHandle;
+        if (getWaypoints == null || getName == null) {
             return;
         }
 
         try {
-            Object waypointsObj = waypointSetGetWaypointsMethod.invoke(context.waypointSet());
+            Object waypointsObj = (Object) getWaypoints.invokeExact(context.waypointSet());
             if (!(waypointsObj instanceof Iterable<?> iterable)) {
                 return;
             }
 
             List<Object> toRemove = new ArrayList<>();
             for (Object waypoint : iterable) {
-                if (waypoint == null || waypoint == ownWaypoint) {
+                if (waypoint == null || isOwnPingWaypoint(waypoint)) {
                     continue;
                 }
 
-                String waypointName = String.valueOf(waypointGetNameMethod.invoke(waypoint));
+                String waypointName = String.valueOf((Object) getName.invokeExact(waypoint));
                 if ("default".equalsIgnoreCase(waypointName)) {
                     toRemove.add(waypoint);
                 }
             }
 
             for (Object waypoint : toRemove) {
-                waypointSetRemoveMethod.invoke(context.waypointSet(), waypoint);
+                waypointSetRemoveHandle.invokeExact(context.waypointSet(), waypoint);
             }
-        } catch (IllegalAccessException | InvocationTargetException ignored) {
+        } catch (Throwable ignored) {
         }
     }
 
-    private static void removeWaypoint(WaypointContext context, Object waypoint) {
+    private static void removeWaypoint(Object waypointSet, Object waypoint) {
         try {
-            waypointSetRemoveMethod.invoke(context.waypointSet(), waypoint);
-        } catch (IllegalAccessException | InvocationTargetException ex) {
+            waypointSetRemoveHandle.invokeExact(waypointSet, waypoint);
+        } catch (Throwable ex) {
             LOGGER.debug("Failed to remove Xaero waypoint: {}", ex.getMessage());
+            // Still ours while Xaero holds it, so the render hook keeps treating it as a ping.
+            if (STRANDED_WAYPOINTS.size() >= MAX_STRANDED_WAYPOINTS) {
+                STRANDED_WAYPOINTS.pollFirst();
+            }
+            STRANDED_WAYPOINTS.addLast(waypoint);
         }
     }
 
-    private static Object invokeNoArg(Object target, String methodName) {
-        if (target == null) {
-            return null;
-        }
-
-        try {
-            Method method = target.getClass().getMethod(methodName);
-            return method.invoke(target);
-        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
-            return null;
-        }
-    }
-
-    private static Object invokeStaticNoArg(String className, String methodName) {
-        try {
-            Class<?> clazz = Class.forName(className);
-            Method method = clazz.getMethod(methodName);
-            return method.invoke(null);
-        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
-            return null;
-        }
-    }
-
-    private static String pingKey(PingRecord ping) {
-        return normalize(ping.sender())
-                + "|" + normalize(ping.serverId())
-                + "|" + normalize(ping.dimension())
-                + "|" + ping.type().wireValue()
-                + "|" + Math.round(ping.position().x)
-                + ":" + Math.round(ping.position().y)
-                + ":" + Math.round(ping.position().z)
-                + "|" + ping.expiresAtMs();
+    private static void publishOwnWaypoints() {
+        Set<Object> next = Collections.newSetFromMap(new IdentityHashMap<>());
+        next.addAll(MIRRORED_WAYPOINTS.values());
+        next.addAll(STRANDED_WAYPOINTS);
+        ownWaypoints = Collections.unmodifiableSet(next);
     }
 
-    private static String normalize(String value) {
-        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    private record WaypointContext(Object world, Object waypointSet) {
     }
 
-    private record WaypointContext(Object waypointSet) {
+    /** What a created waypoint shows: the rounded block position and the ping type. */
+    private record WaypointSpot(long x, long y, long z, PingType type) {
+        static WaypointSpot of(PingRecord ping) {
+            return new WaypointSpot(
+                    Math.round(ping.position().x),
+                    Math.round(ping.position().y),
+                    Math.round(ping.position().z),
+                    ping.type());
+        }
     }
 }
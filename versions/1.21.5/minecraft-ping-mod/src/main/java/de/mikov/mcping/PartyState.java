@@ -3,6 +3,7 @@ package de.mikov.mcping;
 public class PartyState {
     private String partyCode = "";
     private String serverId = "";
+    private volatile int serverHandle = IdInterner.NO_HANDLE;
 
     public synchronized boolean inParty() {
         return !partyCode.isBlank() && !serverId.isBlank();
@@ -11,11 +12,13 @@ public class PartyState {
     public synchronized void joinParty(String partyCode, String serverId) {
         this.partyCode = partyCode;
         this.serverId = serverId;
+        this.serverHandle = IdInterner.SERVER_IDS.intern(serverId);
     }
 
     public synchronized void leaveParty() {
         this.partyCode = "";
         this.serverId = "";
+        this.serverHandle = IdInterner.NO_HANDLE;
     }
 
     public synchronized String partyCode() {
@@ -25,4 +28,8 @@ public class PartyState {
     public synchronized String serverId() {
         return serverId;
     }
+
+    public int serverHandle() {
+        return serverHandle;
+    }
 }
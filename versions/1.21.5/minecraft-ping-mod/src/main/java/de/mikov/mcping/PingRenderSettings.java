@@ -0,0 +1,71 @@
+package de.mikov.mcping;
+
+import java.util.Arrays;
+
+/**
+ * What the world renderer needs from {@link PingConfig}, resolved once per config change:
+ * the own ping colour as ARGB, the scale, the sender name / player colour switches and the
+ * palette other players' pings are coloured from. Immutable; a frame picks it up with a
+ * single read of {@link PingConfig#renderSettings()}.
+ */
+final class PingRenderSettings {
+    private static final int RGB_RED    = 0xFF3333;
+    private static final int RGB_GREEN  = 0x5BC236;
+    private static final int RGB_BLUE   = 0x4AA3FF;
+
+    private static final int[] PRIMARY_PLAYER_COLORS = {
+        RGB_RED, RGB_GREEN, RGB_BLUE
+    };
+
+    private static final int[] EXTRA_PLAYER_COLORS = {
+        0xFFD400, 0xFF8A65, 0xBA68C8, 0xF06292,
+        0x26C6DA, 0xAED581, 0xFFB74D, 0xE57373
+    };
+
+    final int pingColorArgb;
+    final float pingScale;
+    final boolean playerColorsEnabled;
+    final boolean showSenderName;
+    private final int[] playerColorsArgb;
+
+    private PingRenderSettings(PingConfig.Snapshot config) {
+        this.pingColorArgb = config.pingColorArgb();
+        this.pingScale = config.pingScale();
+        this.playerColorsEnabled = config.playerColorsEnabled();
+        this.showSenderName = config.showSenderName();
+        this.playerColorsArgb = buildPlayerColors(config.pingColorRgb());
+    }
+
+    static PingRenderSettings from(PingConfig.Snapshot config) {
+        return new PingRenderSettings(config);
+    }
+
+    int playerColorCount() {
+        return playerColorsArgb.length;
+    }
+
+    /** ARGB colour {@code index} of the palette for other players; never the own colour. */
+    int playerColorArgb(int index) {
+        return playerColorsArgb[index];
+    }
+
+    private static int[] buildPlayerColors(int ownRgb) {
+        int own = ownRgb & 0x00FFFFFF;
+        int[] colors = new int[PRIMARY_PLAYER_COLORS.length + EXTRA_PLAYER_COLORS.length];
+        int count = 0;
+        for (int c : PRIMARY_PLAYER_COLORS) {
+            if (c != own) colors[count++] = 0xFF000000 | c;
+        }
+        for (int c : EXTRA_PLAYER_COLORS) {
+            if (c != own && !contains(colors, count, 0xFF000000 | c)) colors[count++] = 0xFF000000 | c;
+        }
+        return Arrays.copyOf(colors, count);
+    }
+
+    private static boolean contains(int[] colors, int count, int color) {
+        for (int i = 0; i < count; i++) {
+            if (colors[i] == color) return true;
+        }
+        return false;
+    }
+}
@@ -1,96 +1,288 @@
 package de.mikov.mcping;
 
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.JsonPrimitive;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.util.math.Vec3d;
 
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
 import java.time.Duration;
-import java.util.Locale;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.SplittableRandom;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.random.RandomGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class RelayClient {
     private static final Logger LOGGER = LoggerFactory.getLogger("mcping-relay-client");
     private static final int MAX_INBOUND_MESSAGE_CHARS = 4096;
+    private static final int MAX_INBOUND_BINARY_BYTES = 64;
     private static final double MAX_ABS_COORDINATE = 30_000_000.0;
     private static final double MIN_Y = -2048.0;
     private static final double MAX_Y = 4096.0;
-    private static final int MAX_PLAYER_LENGTH = 32;
-    private static final int MAX_SERVER_ID_LENGTH = 96;
-    private static final int MAX_DIMENSION_LENGTH = 96;
+    static final int MAX_PLAYER_LENGTH = 32;
+    static final int MAX_SERVER_ID_LENGTH = 96;
+    static final int MAX_DIMENSION_LENGTH = 96;
+    private static final int MAX_PENDING_PINGS = 256;
+    private static final int MAX_REMOTE_DIMENSIONS = 256;
+    private static final int MAX_SPARE_TEXT_BUFFERS = 4;
+    private static final int MAX_QUEUED_PINGS = 12;
+    // Pings queued while offline are still sent this long after they were made.
+    private static final long PING_REPLAY_WINDOW_MS = 5_000L;
+    // Mirrors the relay's default PING_RATE_MAX per PING_RATE_WINDOW_MS. The window is padded so
+    // network jitter cannot squeeze more than the relay allows into one of its windows.
+    private static final int PING_BUDGET = 12;
+    private static final long PING_BUDGET_WINDOW_MS = 1_100L;
+    private static final long HEARTBEAT_INTERVAL_MS = 5_000L;
+    // Nothing received (frames or pongs) for this long means the connection is half-open.
+    private static final long HEARTBEAT_TIMEOUT_MS = 15_000L;
+    private static final double MAX_RTT_SAMPLE_MS = 60_000.0;
+    // With several relays, this many failed attempts in a row move us to the next one.
+    private static final int FAILOVER_AFTER_FAILURES = 2;
+    private static final long RELAY_RECHECK_INTERVAL_MS = 1_000L;
+    private static final Duration STARTUP_PROBE_TIMEOUT = Duration.ofSeconds(5);
+    // Probes that decide about a failover, or about going back to the party's relay after one.
+    private static final Duration QUICK_PROBE_TIMEOUT = Duration.ofMillis(1_500);
+    private static final long PREFERRED_REPROBE_INTERVAL_MS = 5_000L;
+
+    public enum ConnectionState {
+        DISCONNECTED("disconnected"),
+        CONNECTING("connecting"),
+        CONNECTED("connected"),
+        BACKING_OFF("reconnecting");
+
+        private final String label;
+
+        ConnectionState(String label) {
+            this.label = label;
+        }
+
+        /** Lower-case text shown to the player. */
+        public String label() {
+            return label;
+        }
+    }
+
+    /** Notified after every state change, on whichever thread caused it; keep it cheap. */
+    @FunctionalInterface
+    public interface ConnectionStateListener {
+        void onConnectionStateChanged(ConnectionState state);
+    }
 
     private final MinecraftClient client;
     private final PingManager pingManager;
     private final PartyState partyState;
-    private final String relayUrl;
+    private volatile RelaySelector relays;
+    private volatile String relayUrl;
+    // Startup RTT probe of all relays, or the check before a failover; connecting waits for it.
+    // Null until the startup probe was started.
+    private volatile CompletableFuture<Void> relayProbe;
 
     private final HttpClient httpClient = HttpClient.newBuilder()
             .connectTimeout(Duration.ofSeconds(5))
             .build();
 
-    private WebSocket webSocket;
-    private volatile boolean connecting;
-    private long lastConnectAttemptMs;
+    private final Map<String, Integer> dimensionIds = new ConcurrentHashMap<>();
+    // Relay dimension id -> dimension key for this connection. Kept as strings and resolved per
+    // ping, so remote input never grows the process-wide IdInterner.DIMENSIONS table.
+    private final Map<Integer, String> remoteDimensions = new ConcurrentHashMap<>();
+    private final Map<Long, String> playerNames = new ConcurrentHashMap<>();
+
+    // Decodes inbound frames off the HttpClient listener thread, one at a time in arrival order.
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mcping-relay-decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Decoded pings waiting for the client thread, drained into PingManager once per tick.
+    private final Queue<PingManager.IncomingPing> pendingPings = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingPingCount = new AtomicInteger();
+    private final List<PingManager.IncomingPing> drainedPings = new ArrayList<>();
+    // Text frame buffers handed from the listener to the decoder and back, so steady traffic reuses them.
+    private final Queue<StringBuilder> spareTextBuffers = new ConcurrentLinkedQueue<>();
+
+    private final List<ConnectionStateListener> stateListeners = new CopyOnWriteArrayList<>();
+
+    // Outbound frames. A single writer sends one frame at a time and only starts the next once the
+    // previous send has completed; everything below is guarded by the outbound lock.
+    private final Object outbound = new Object();
+    private final Deque<QueuedPing> queuedPings = new ArrayDeque<>();
+    private final long[] pingSendTimesMs = new long[PING_BUDGET];
+    private int nextPingSendSlot;
+    // Latest join or leave not yet sent; a newer one replaces it.
+    private String pendingMembership;
+    private boolean sendInFlight;
 
-    public RelayClient(MinecraftClient client, PingManager pingManager, PartyState partyState, String relayUrl) {
+    private volatile WebSocket webSocket;
+    // Transitions happen in backoff under this object's lock; state mirrors it for lock-free reads.
+    private final ReconnectBackoff backoff = new ReconnectBackoff();
+    // Draws the reconnect jitter; only used under this object's lock.
+    private final RandomGenerator reconnectJitter;
+    private volatile ConnectionState state = ConnectionState.DISCONNECTED;
+    private volatile boolean closed;
+    private volatile long joinedRoomId = -1L;
+    private int failuresOnRelay;
+    // Bumped per connection attempt and on a relay switch; an attempt that completes after it
+    // was superseded closes its socket instead of becoming the connection.
+    private long connectGeneration;
+    private long nextRelayCheckMs;
+    // Tick thread only: re-probing the preferred relay while connected to a fallback.
+    private long nextPreferredProbeMs;
+    private CompletableFuture<Long> preferredProbe;
+    private volatile long lastInboundMs;
+    private long lastHeartbeatMs;
+    // Smoothed like TCP's SRTT/RTTVAR (RFC 6298); NaN until the first pong arrives.
+    private volatile double smoothedRttMs = Double.NaN;
+    private volatile double rttJitterMs = Double.NaN;
+
+    public RelayClient(MinecraftClient client, PingManager pingManager, PartyState partyState, List<String> relayUrls) {
+        this(client, pingManager, partyState, relayUrls, new SplittableRandom());
+    }
+
+    /** {@code reconnectJitter} may be seeded so a test gets the same reconnect delays every run. */
+    RelayClient(MinecraftClient client, PingManager pingManager, PartyState partyState, List<String> relayUrls,
+                RandomGenerator reconnectJitter) {
         this.client = client;
         this.pingManager = pingManager;
         this.partyState = partyState;
-        this.relayUrl = relayUrl;
+        this.reconnectJitter = reconnectJitter;
+        this.relays = new RelaySelector(relayUrls);
+        this.relayUrl = relays.urls().get(0);
     }
 
     public void tick() {
-        if (webSocket == null && !connecting) {
-            long now = System.currentTimeMillis();
-            if (now - lastConnectAttemptMs > 5_000L) {
-                connect();
-            }
+        drainPendingPings();
+        flushOutbound();
+        heartbeat();
+
+        if (relayProbe == null) {
+            relayProbe = probeRelays(relays);
+        }
+        if (!relayProbe.isDone()) {
+            return;
+        }
+
+        if (state == ConnectionState.CONNECTED) {
+            checkPreferredRelay();
+            return;
+        }
+        boolean due;
+        synchronized (this) {
+            due = backoff.attemptDue(System.currentTimeMillis());
+        }
+        if (due) {
+            connect();
         }
     }
 
     public void connect() {
-        lastConnectAttemptMs = System.currentTimeMillis();
-        connecting = true;
-        LOGGER.info("Connecting to relay {}", relayUrl);
+        String url;
+        long generation;
+        synchronized (this) {
+            if (closed || !backoff.startAttempt()) {
+                return;
+            }
+            relayUrl = relays.select(currentServerId(), System.currentTimeMillis());
+            url = relayUrl;
+            generation = ++connectGeneration;
+            publishState();
+        }
+        LOGGER.info("Connecting to relay {}", url);
 
         httpClient.newWebSocketBuilder()
-                .buildAsync(URI.create(relayUrl), new Listener())
+                .buildAsync(URI.create(url), new Listener())
                 .whenComplete((ws, err) -> {
-                    connecting = false;
-                    if (err == null) {
-                        webSocket = ws;
-                        LOGGER.info("Connected to relay {}", relayUrl);
-                        sendHelloIfPartyActive();
-                    } else {
-                        webSocket = null;
+                    synchronized (this) {
+                        if (generation != connectGeneration) {
+                            // The relay list changed or a switch was requested meanwhile; the
+                            // next tick already connects to the newly selected relay.
+                            if (ws != null) {
+                                ws.abort();
+                            }
+                            return;
+                        }
+                    }
+                    resetWireState();
+                    if (err != null) {
                         LOGGER.warn("Relay connection failed: {}", err.getMessage());
+                        scheduleReconnect();
+                        return;
+                    }
+
+                    synchronized (this) {
+                        if (closed) {
+                            ws.sendClose(WebSocket.NORMAL_CLOSURE, "client-reload");
+                            return;
+                        }
+                        synchronized (outbound) {
+                            // The new connection has no membership yet; a leave for the old one is moot.
+                            sendInFlight = false;
+                            pendingMembership = null;
+                        }
+                        webSocket = ws;
+                        failuresOnRelay = 0;
+                        long now = System.currentTimeMillis();
+                        backoff.connected(now);
+                        lastInboundMs = now;
+                        lastHeartbeatMs = 0L;
+                        smoothedRttMs = Double.NaN;
+                        rttJitterMs = Double.NaN;
+                        publishState();
                     }
+                    LOGGER.info("Connected to relay {}", url);
+                    sendHelloIfPartyActive();
+                    flushOutbound();
                 });
     }
 
+    public ConnectionState connectionState() {
+        return state;
+    }
+
+    public void addConnectionStateListener(ConnectionStateListener listener) {
+        stateListeners.add(listener);
+    }
+
+    public void removeConnectionStateListener(ConnectionStateListener listener) {
+        stateListeners.remove(listener);
+    }
+
     public void sendJoin(String partyCode, String serverId) {
         JsonObject payload = new JsonObject();
         payload.addProperty("type", "join");
         payload.addProperty("party", partyCode);
         payload.addProperty("serverId", serverId);
         payload.addProperty("player", getPlayerName());
-        sendJson(payload);
-        LOGGER.info("Join sent party={} serverId={} player={}", partyCode, serverId, getPlayerName());
+        payload.addProperty("proto", RelayWireFormat.PROTOCOL_VERSION);
+        joinedRoomId = -1L;
+        queueMembership(payload.toString());
+        LOGGER.info("Join queued party={} serverId={} player={}", partyCode, serverId, getPlayerName());
     }
 
     public void sendLeave() {
         JsonObject payload = new JsonObject();
         payload.addProperty("type", "leave");
         payload.addProperty("player", getPlayerName());
-        sendJson(payload);
-        LOGGER.info("Leave sent player={}", getPlayerName());
+        joinedRoomId = -1L;
+        queueMembership(payload.toString());
+        LOGGER.info("Leave queued player={}", getPlayerName());
     }
 
     public void sendPing(Vec3d pos, String dimension, PingType pingType) {
@@ -98,39 +290,82 @@ public class RelayClient {
             return;
         }
 
-        JsonObject payload = new JsonObject();
-        payload.addProperty("type", "ping");
-        payload.addProperty("party", partyState.partyCode());
-        payload.addProperty("serverId", partyState.serverId());
-        payload.addProperty("player", getPlayerName());
-        payload.addProperty("x", pos.x);
-        payload.addProperty("y", pos.y);
-        payload.addProperty("z", pos.z);
-        payload.addProperty("dimension", dimension);
-        payload.addProperty("pingType", pingType.wireValue());
-        sendJson(payload);
-        LOGGER.info("Ping sent party={} serverId={} player={} type={} pos=({}, {}, {}) dimension={}",
-            partyState.partyCode(),
-            partyState.serverId(),
-            getPlayerName(),
-            pingType,
-            Math.round(pos.x),
-            Math.round(pos.y),
-            Math.round(pos.z),
-            dimension);
+        QueuedPing ping = new QueuedPing(partyState.partyCode(), partyState.serverId(), pos, dimension, pingType, System.currentTimeMillis());
+        synchronized (outbound) {
+            if (queuedPings.size() >= MAX_QUEUED_PINGS) {
+                queuedPings.pollFirst();
+            }
+            queuedPings.addLast(ping);
+        }
+        flushOutbound();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Ping queued party={} serverId={} player={} type={} pos=({}, {}, {}) dimension={}",
+                partyState.partyCode(),
+                partyState.serverId(),
+                getPlayerName(),
+                pingType,
+                Math.round(pos.x),
+                Math.round(pos.y),
+                Math.round(pos.z),
+                dimension);
+        }
+    }
+
+    /** Smoothed round-trip time to the relay in milliseconds, or NaN before the first measurement. */
+    public double smoothedRttMs() {
+        return smoothedRttMs;
+    }
+
+    /** Mean deviation of the round-trip time in milliseconds, or NaN before the first measurement. */
+    public double rttJitterMs() {
+        return rttJitterMs;
     }
 
     public boolean isConnected() {
-        return webSocket != null;
+        return state == ConnectionState.CONNECTED;
     }
 
+    /** True while connected to another relay than the one the party meets on, e.g. after a failover. */
+    public boolean onFallbackRelay() {
+        String preferred = relays.preferred(currentServerId());
+        return preferred != null && !preferred.equals(relayUrl);
+    }
+
+    /** The relay currently used (or being connected to). */
     public String relayUrl() {
         return relayUrl;
     }
 
+    /**
+     * Replaces the relay list, e.g. after the settings changed. Party membership and queued pings
+     * are kept; the client re-probes the new relays and reconnects to its choice among them.
+     */
+    public void setRelayUrls(List<String> relayUrls) {
+        if (relays.urls().equals(relayUrls)) {
+            return;
+        }
+        relays = new RelaySelector(relayUrls);
+        relayProbe = null;
+        disconnectForRelaySwitch("relay-list-changed");
+    }
+
     public void close() {
-        WebSocket ws = webSocket;
-        webSocket = null;
+        decoder.shutdownNow();
+        pendingPings.clear();
+        pendingPingCount.set(0);
+        synchronized (outbound) {
+            queuedPings.clear();
+            pendingMembership = null;
+        }
+
+        WebSocket ws;
+        synchronized (this) {
+            closed = true;
+            ws = webSocket;
+            webSocket = null;
+            backoff.stop();
+            publishState();
+        }
         if (ws != null) {
             try {
                 ws.sendClose(WebSocket.NORMAL_CLOSURE, "client-reload");
@@ -145,12 +380,380 @@ public class RelayClient {
         }
     }
 
-    private void sendJson(JsonObject payload) {
+    /**
+     * Sends a WebSocket ping carrying the send time every few seconds and drops the connection
+     * once nothing at all came back for {@link #HEARTBEAT_TIMEOUT_MS}. Without this a connection
+     * lost to a NAT or Wi-Fi drop only notices after the OS gives up on the TCP socket.
+     */
+    private void heartbeat() {
         WebSocket ws = webSocket;
-        if (ws == null) {
+        if (ws == null || state != ConnectionState.CONNECTED) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastInboundMs > HEARTBEAT_TIMEOUT_MS) {
+            LOGGER.warn("Relay silent for {} ms, reconnecting", now - lastInboundMs);
+            synchronized (this) {
+                if (webSocket == ws) {
+                    scheduleReconnect();
+                }
+            }
+            ws.abort();
             return;
         }
-        ws.sendText(payload.toString(), true);
+
+        if (now - lastHeartbeatMs >= HEARTBEAT_INTERVAL_MS) {
+            lastHeartbeatMs = now;
+            ByteBuffer payload = ByteBuffer.allocate(Long.BYTES).putLong(0, System.nanoTime());
+            try {
+                ws.sendPing(payload);
+            } catch (RuntimeException ex) {
+                LOGGER.debug("Relay heartbeat not sent: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private void recordRttSample(double sampleMs) {
+        if (!(sampleMs >= 0.0 && sampleMs <= MAX_RTT_SAMPLE_MS)) {
+            return;
+        }
+
+        double srtt = smoothedRttMs;
+        if (Double.isNaN(srtt)) {
+            smoothedRttMs = sampleMs;
+            rttJitterMs = sampleMs / 2.0;
+            return;
+        }
+        rttJitterMs = 0.75 * rttJitterMs + 0.25 * Math.abs(srtt - sampleMs);
+        smoothedRttMs = 0.875 * srtt + 0.125 * sampleMs;
+    }
+
+    private void queueMembership(String frame) {
+        synchronized (outbound) {
+            pendingMembership = frame;
+        }
+        flushOutbound();
+    }
+
+    /**
+     * Starts sending the next queued frame unless a send is still in flight. Membership changes
+     * go first so pings reach the right room; pings wait for the ping budget and are dropped once
+     * they are older than the replay window or belong to a party we have since left. Called
+     * whenever something is queued, when a send completes and once per tick.
+     */
+    private void flushOutbound() {
+        synchronized (outbound) {
+            WebSocket ws = webSocket;
+            if (ws == null || sendInFlight) {
+                return;
+            }
+
+            String membership = pendingMembership;
+            if (membership != null) {
+                startSend(ws, () -> ws.sendText(membership, true), () -> {
+                    if (pendingMembership == membership) {
+                        pendingMembership = null;
+                    }
+                });
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            QueuedPing ping;
+            while ((ping = queuedPings.peekFirst()) != null && !isReplayable(ping, now)) {
+                queuedPings.pollFirst();
+            }
+            if (ping == null || !takePingBudget(now)) {
+                return;
+            }
+
+            QueuedPing next = ping;
+            long roomId = joinedRoomId;
+            Integer dimensionId = dimensionIds.get(next.dimension());
+            if (roomId >= 0 && dimensionId != null) {
+                ByteBuffer frame = RelayWireFormat.encodePing(roomId, dimensionId, next.type(), next.pos());
+                startSend(ws, () -> ws.sendBinary(frame, true), () -> queuedPings.remove(next));
+            } else {
+                String frame = encodeJsonPing(next);
+                startSend(ws, () -> ws.sendText(frame, true), () -> queuedPings.remove(next));
+            }
+        }
+    }
+
+    // Caller holds the outbound lock. The frame leaves the queue only once it was actually sent,
+    // so a send that fails with the connection is retried on the next one.
+    private void startSend(WebSocket ws, Supplier<CompletableFuture<WebSocket>> send, Runnable onSent) {
+        CompletableFuture<WebSocket> future;
+        try {
+            future = send.get();
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Relay send failed: {}", ex.getMessage());
+            return;
+        }
+
+        sendInFlight = true;
+        future.whenComplete((ignored, error) -> {
+            synchronized (outbound) {
+                if (webSocket != ws) {
+                    // Connection was replaced meanwhile; connect() already reset the writer.
+                    return;
+                }
+                sendInFlight = false;
+                if (error == null) {
+                    onSent.run();
+                } else {
+                    LOGGER.warn("Relay send failed: {}", error.getMessage());
+                }
+            }
+            flushOutbound();
+        });
+    }
+
+    private boolean isReplayable(QueuedPing ping, long now) {
+        return now - ping.queuedAtMs() <= PING_REPLAY_WINDOW_MS
+            && partyState.inParty()
+            && ping.partyCode().equals(partyState.partyCode())
+            && ping.serverId().equals(partyState.serverId());
+    }
+
+    // Sliding window over the last PING_BUDGET send times; caller holds the outbound lock.
+    private boolean takePingBudget(long now) {
+        if (now - pingSendTimesMs[nextPingSendSlot] < PING_BUDGET_WINDOW_MS) {
+            return false;
+        }
+        pingSendTimesMs[nextPingSendSlot] = now;
+        nextPingSendSlot = (nextPingSendSlot + 1) % PING_BUDGET;
+        return true;
+    }
+
+    private String encodeJsonPing(QueuedPing ping) {
+        JsonObject payload = new JsonObject();
+        payload.addProperty("type", "ping");
+        payload.addProperty("party", ping.partyCode());
+        payload.addProperty("serverId", ping.serverId());
+        payload.addProperty("player", getPlayerName());
+        payload.addProperty("x", ping.pos().x);
+        payload.addProperty("y", ping.pos().y);
+        payload.addProperty("z", ping.pos().z);
+        payload.addProperty("dimension", ping.dimension());
+        payload.addProperty("pingType", ping.type().wireValue());
+        return payload.toString();
+    }
+
+    /**
+     * Called when a connection attempt fails or an open connection drops; the delay until the
+     * next attempt comes from {@link ReconnectBackoff}.
+     */
+    private synchronized void scheduleReconnect() {
+        webSocket = null;
+        if (closed) {
+            backoff.stop();
+            publishState();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        // After repeated failures one quick probe decides whether the relay is down or only this
+        // client's connection was; the next attempt waits for it (see tick) and then goes to
+        // another relay only in the first case. Failing over on our own failures alone would
+        // move us away from the rest of the party for the whole cool-down.
+        boolean failover = false;
+        if (relays.hasAlternatives() && ++failuresOnRelay >= FAILOVER_AFTER_FAILURES) {
+            failuresOnRelay = 0;
+            failover = true;
+            relayProbe = confirmRelayDown(relays, relayUrl);
+        }
+
+        long delay = backoff.failed(now, failover, reconnectJitter);
+        publishState();
+        LOGGER.info("Relay reconnect in {} ms (attempt {})", delay, backoff.failedAttempts());
+    }
+
+    /**
+     * Moves to the relay preferred for the current server id once it differs from the one we are
+     * connected to, e.g. after joining a server or when a failed relay's cool-down ended.
+     */
+    private void checkPreferredRelay() {
+        RelaySelector selector = relays;
+        if (!selector.hasAlternatives()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < nextRelayCheckMs) {
+            return;
+        }
+        nextRelayCheckMs = now + RELAY_RECHECK_INTERVAL_MS;
+
+        String serverId = currentServerId();
+        String partyRelay = selector.preferred(serverId);
+        if (partyRelay != null && !partyRelay.equals(relayUrl) && selector.isFailed(partyRelay, now)) {
+            reprobePreferredRelay(selector, partyRelay, now);
+        }
+
+        String preferred = selector.select(serverId, now);
+        if (!preferred.equals(relayUrl)) {
+            LOGGER.info("Switching relay {} -> {}", relayUrl, preferred);
+            disconnectForRelaySwitch("relay-switch");
+        }
+    }
+
+    // On a fallback relay the party's relay is probed every few seconds; once it answers its
+    // failure is cleared and the next check moves back to it.
+    private void reprobePreferredRelay(RelaySelector selector, String url, long now) {
+        if (now < nextPreferredProbeMs || (preferredProbe != null && !preferredProbe.isDone())) {
+            return;
+        }
+        nextPreferredProbeMs = now + PREFERRED_REPROBE_INTERVAL_MS;
+        preferredProbe = probe(url, QUICK_PROBE_TIMEOUT);
+        preferredProbe.thenAccept(rttMs -> {
+            if (rttMs != RelaySelector.UNREACHABLE) {
+                LOGGER.info("Relay {} is reachable again", url);
+                selector.clearFailed(url);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> confirmRelayDown(RelaySelector selector, String url) {
+        return probe(url, QUICK_PROBE_TIMEOUT).thenAccept(rttMs -> {
+            if (rttMs != RelaySelector.UNREACHABLE) {
+                LOGGER.info("Relay {} answers a probe, staying on it", url);
+                return;
+            }
+            long now = System.currentTimeMillis();
+            selector.markFailed(url, now);
+            LOGGER.warn("Relay {} unreachable, failing over to {}", url, selector.select(currentServerId(), now));
+        });
+    }
+
+    // The next tick connects to the newly selected relay and re-joins the party from PartyState.
+    // An attempt still in flight is superseded, so it cannot land on the old relay.
+    private void disconnectForRelaySwitch(String reason) {
+        WebSocket ws;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            ws = webSocket;
+            webSocket = null;
+            connectGeneration++;
+            failuresOnRelay = 0;
+            backoff.reset();
+            publishState();
+        }
+        if (ws != null) {
+            try {
+                ws.sendClose(WebSocket.NORMAL_CLOSURE, reason);
+            } catch (RuntimeException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Times the WebSocket handshake (TCP connect plus HTTP upgrade) to every relay in parallel.
+     * Only used when more than one relay is configured; a relay that does not answer within the
+     * connect timeout counts as failed.
+     */
+    // Round-trip times only rank relays while no server id is known (see RelaySelector), so
+    // with one there is nothing to probe for; failed connects mark a relay down instead.
+    private CompletableFuture<Void> probeRelays(RelaySelector selector) {
+        if (!selector.hasAlternatives() || currentServerId() != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<String> urls = selector.urls();
+        CompletableFuture<?>[] probes = new CompletableFuture<?>[urls.size()];
+        for (int i = 0; i < probes.length; i++) {
+            String url = urls.get(i);
+            probes[i] = probe(url, STARTUP_PROBE_TIMEOUT).thenAccept(rttMs -> {
+                selector.recordProbe(url, rttMs);
+                if (rttMs != RelaySelector.UNREACHABLE) {
+                    LOGGER.info("Relay probe {} took {} ms", url, rttMs);
+                }
+            });
+        }
+        return CompletableFuture.allOf(probes);
+    }
+
+    /** WebSocket handshake time to {@code url} in ms, or {@link RelaySelector#UNREACHABLE}; never fails. */
+    private CompletableFuture<Long> probe(String url, Duration timeout) {
+        long startNs = System.nanoTime();
+        try {
+            return httpClient.newWebSocketBuilder()
+                    .connectTimeout(timeout)
+                    .buildAsync(URI.create(url), new WebSocket.Listener() {
+                    })
+                    .handle((ws, err) -> {
+                        if (err != null) {
+                            return RelaySelector.UNREACHABLE;
+                        }
+                        ws.abort();
+                        return (System.nanoTime() - startNs) / 1_000_000L;
+                    });
+        } catch (IllegalArgumentException ex) {
+            return CompletableFuture.completedFuture(RelaySelector.UNREACHABLE);
+        }
+    }
+
+    private String currentServerId() {
+        if (!partyState.inParty()) {
+            return null;
+        }
+        String serverId = partyState.serverId();
+        return "unknown".equals(serverId) ? null : serverId;
+    }
+
+    private synchronized void publishState() {
+        ConnectionState next = backoff.state();
+        if (state == next) {
+            return;
+        }
+        state = next;
+        for (ConnectionStateListener listener : stateListeners) {
+            listener.onConnectionStateChanged(next);
+        }
+    }
+
+    private void drainPendingPings() {
+        PingManager.IncomingPing ping;
+        while ((ping = pendingPings.poll()) != null) {
+            pendingPingCount.decrementAndGet();
+            drainedPings.add(ping);
+        }
+        if (drainedPings.isEmpty()) {
+            return;
+        }
+
+        pingManager.addPings(drainedPings);
+        drainedPings.clear();
+    }
+
+    private void decode(Runnable task) {
+        try {
+            decoder.execute(task);
+        } catch (RejectedExecutionException ignored) {
+            // Client closed; late frames are dropped.
+        }
+    }
+
+    private StringBuilder takeTextBuffer() {
+        StringBuilder buffer = spareTextBuffers.poll();
+        return buffer != null ? buffer : new StringBuilder(256);
+    }
+
+    private void recycleTextBuffer(StringBuilder buffer) {
+        buffer.setLength(0);
+        if (spareTextBuffers.size() < MAX_SPARE_TEXT_BUFFERS) {
+            spareTextBuffers.offer(buffer);
+        }
+    }
+
+    private void resetWireState() {
+        joinedRoomId = -1L;
+        dimensionIds.clear();
+        remoteDimensions.clear();
+        playerNames.clear();
     }
 
     private String getPlayerName() {
@@ -161,7 +764,12 @@ public class RelayClient {
     }
 
     private class Listener implements WebSocket.Listener {
-        private final StringBuilder buffer = new StringBuilder();
+        private StringBuilder textBuffer = takeTextBuffer();
+        private boolean textOverflow;
+        private final ByteBuffer binaryBuffer = ByteBuffer.allocate(MAX_INBOUND_BINARY_BYTES);
+        private boolean binaryOverflow;
+        // Only used on the decoder thread.
+        private final RelayMessageReader message = new RelayMessageReader();
 
         @Override
         public void onOpen(WebSocket webSocket) {
@@ -171,122 +779,242 @@ public class RelayClient {
 
         @Override
         public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
-            buffer.append(data);
+            lastInboundMs = System.currentTimeMillis();
+            if (textBuffer.length() + data.length() > MAX_INBOUND_MESSAGE_CHARS) {
+                textOverflow = true;
+                textBuffer.setLength(0);
+            } else if (!textOverflow) {
+                textBuffer.append(data);
+            }
             if (last) {
-                String message = buffer.toString();
-                buffer.setLength(0);
-                handleMessage(message);
+                if (!textOverflow && textBuffer.length() > 0) {
+                    StringBuilder frame = textBuffer;
+                    textBuffer = takeTextBuffer();
+                    decode(() -> {
+                        try {
+                            handleMessage(frame);
+                        } finally {
+                            recycleTextBuffer(frame);
+                        }
+                    });
+                }
+                textBuffer.setLength(0);
+                textOverflow = false;
             }
             webSocket.request(1);
             return CompletableFuture.completedFuture(null);
         }
 
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            lastInboundMs = System.currentTimeMillis();
+            if (data.remaining() > binaryBuffer.remaining()) {
+                binaryOverflow = true;
+            } else if (!binaryOverflow) {
+                binaryBuffer.put(data);
+            }
+            if (last) {
+                if (!binaryOverflow) {
+                    binaryBuffer.flip();
+                    ByteBuffer frame = ByteBuffer.allocate(binaryBuffer.remaining()).put(binaryBuffer).flip();
+                    decode(() -> handleBinaryMessage(frame));
+                }
+                binaryBuffer.clear();
+                binaryOverflow = false;
+            }
+            webSocket.request(1);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletionStage<?> onPing(WebSocket webSocket, ByteBuffer message) {
+            lastInboundMs = System.currentTimeMillis();
+            return WebSocket.Listener.super.onPing(webSocket, message);
+        }
+
+        @Override
+        public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+            lastInboundMs = System.currentTimeMillis();
+            if (message.remaining() == Long.BYTES) {
+                recordRttSample((System.nanoTime() - message.getLong(message.position())) / 1_000_000.0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
         @Override
         public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
-            RelayClient.this.webSocket = null;
             LOGGER.warn("Relay connection closed status={} reason={}", statusCode, reason);
+            connectionLost(webSocket);
             return CompletableFuture.completedFuture(null);
         }
 
         @Override
         public void onError(WebSocket webSocket, Throwable error) {
-            RelayClient.this.webSocket = null;
             LOGGER.warn("Relay socket error: {}", error.getMessage());
+            connectionLost(webSocket);
         }
 
-        private void handleMessage(String message) {
-            try {
-                if (message == null || message.length() == 0 || message.length() > MAX_INBOUND_MESSAGE_CHARS) {
+        private void connectionLost(WebSocket webSocket) {
+            synchronized (RelayClient.this) {
+                // Late callbacks from a socket that was already replaced or closed are ignored.
+                if (RelayClient.this.webSocket != webSocket) {
                     return;
                 }
+                scheduleReconnect();
+            }
+        }
 
-                JsonObject obj = JsonParser.parseString(message).getAsJsonObject();
-                if (!"ping".equals(readRequiredString(obj, "type", 16))) {
+        private void handleMessage(CharSequence frame) {
+            try {
+                if (!message.read(frame)) {
+                    return;
+                }
+                if ("joined".equals(message.type)) {
+                    handleJoined();
+                    return;
+                }
+                if ("intern".equals(message.type)) {
+                    handleIntern();
+                    return;
+                }
+                if (!"ping".equals(message.type)) {
                     return;
                 }
 
-                String sender = readRequiredString(obj, "player", MAX_PLAYER_LENGTH);
-                String serverId = readRequiredString(obj, "serverId", MAX_SERVER_ID_LENGTH);
-                String dimension = readRequiredString(obj, "dimension", MAX_DIMENSION_LENGTH);
-                Double x = readRequiredNumber(obj, "x");
-                Double y = readRequiredNumber(obj, "y");
-                Double z = readRequiredNumber(obj, "z");
-                if (sender == null || serverId == null || dimension == null || x == null || y == null || z == null) {
+                String sender = message.player;
+                String serverId = message.serverId;
+                String dimension = message.dimension;
+                double x = message.x;
+                double y = message.y;
+                double z = message.z;
+                if (sender == null || serverId == null || dimension == null || Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(z)) {
                     return;
                 }
 
-                if (!isValidIdentifier(serverId) || !isValidIdentifier(dimension)) {
+                if (!RelayIdentifiers.isValidPlayerName(sender, MAX_PLAYER_LENGTH)
+                        || !RelayIdentifiers.isValidIdentifier(serverId, MAX_SERVER_ID_LENGTH)
+                        || !RelayIdentifiers.isValidIdentifier(dimension, MAX_DIMENSION_LENGTH)) {
                     return;
                 }
                 if (!isWithinBounds(x, y, z)) {
                     return;
                 }
 
-                PingType pingType = obj.has("pingType") ? PingType.fromWire(obj.get("pingType").getAsString()) : PingType.NORMAL;
+                PingType pingType = message.pingType != null ? PingType.fromWire(message.pingType) : PingType.NORMAL;
 
                 if (!partyState.inParty() || !partyState.serverId().equals(serverId)) {
                     return;
                 }
 
-                LOGGER.info("Ping received sender={} type={} pos=({}, {}, {}) dimension={}",
-                        sender,
-                        pingType,
-                        Math.round(x),
-                        Math.round(y),
-                        Math.round(z),
-                        dimension);
+                deliverPing(sender, partyState.serverHandle(), dimension, x, y, z, pingType);
+            } catch (RuntimeException ignored) {
+            }
+        }
 
-                client.execute(() -> pingManager.addPing(sender, new Vec3d(x, y, z), serverId, dimension, pingType));
+        private void handleBinaryMessage(ByteBuffer frame) {
+            try {
+                RelayWireFormat.InboundPing ping = RelayWireFormat.decodePing(frame);
+                if (ping == null || ping.roomId() != joinedRoomId) {
+                    return;
+                }
+
+                String sender = playerNames.get(ping.senderId());
+                String dimension = remoteDimensions.get(ping.dimensionId());
+                if (sender == null || dimension == null) {
+                    return;
+                }
+                if (!isWithinBounds(ping.x(), ping.y(), ping.z())) {
+                    return;
+                }
+                if (!partyState.inParty()) {
+                    return;
+                }
+
+                deliverPing(sender, partyState.serverHandle(), dimension, ping.x(), ping.y(), ping.z(), ping.type());
             } catch (RuntimeException ignored) {
             }
         }
 
-        private static String readRequiredString(JsonObject obj, String key, int maxLength) {
-            if (!obj.has(key)) {
-                return null;
+        private void handleJoined() {
+            String party = message.party;
+            String serverId = message.serverId;
+            long protocol = message.proto;
+            long roomId = message.room;
+            if (party == null || serverId == null || protocol == RelayMessageReader.NO_ID || roomId == RelayMessageReader.NO_ID) {
+                return;
             }
-            if (!(obj.get(key) instanceof JsonPrimitive primitive) || !primitive.isString()) {
-                return null;
+            if (protocol != RelayWireFormat.PROTOCOL_VERSION || !RelayWireFormat.isValidEntityId(roomId)) {
+                return;
             }
-            String value = primitive.getAsString();
-            if (value == null) {
-                return null;
+            if (!partyState.inParty()
+                    || !partyState.partyCode().equalsIgnoreCase(party)
+                    || !partyState.serverId().equalsIgnoreCase(serverId)) {
+                return;
             }
 
-            String trimmed = value.trim();
-            if (trimmed.isEmpty() || trimmed.length() > maxLength) {
-                return null;
-            }
-            return trimmed;
+            // The relay numbers dimensions and players per room; clear before publishing the room
+            // id so the sender never pairs the new room with an id from the old one.
+            dimensionIds.clear();
+            remoteDimensions.clear();
+            playerNames.clear();
+            joinedRoomId = roomId;
         }
 
-        private static Double readRequiredNumber(JsonObject obj, String key) {
-            if (!obj.has(key)) {
-                return null;
+        private void handleIntern() {
+            String kind = message.kind;
+            long id = message.id;
+            if (kind == null || id == RelayMessageReader.NO_ID) {
+                return;
             }
-            if (!(obj.get(key) instanceof JsonPrimitive primitive) || !primitive.isNumber()) {
-                return null;
+
+            if ("dimension".equals(kind)) {
+                String dimension = message.value;
+                if (dimension == null || !RelayIdentifiers.isValidIdentifier(dimension, MAX_DIMENSION_LENGTH) || !RelayWireFormat.isValidDimensionId(id)) {
+                    return;
+                }
+                if (remoteDimensions.size() >= MAX_REMOTE_DIMENSIONS && !remoteDimensions.containsKey((int) id)) {
+                    return;
+                }
+                String previous = remoteDimensions.put((int) id, dimension);
+                if (previous != null && !previous.equals(dimension)) {
+                    dimensionIds.remove(previous, (int) id);
+                }
+                dimensionIds.put(dimension, (int) id);
+            } else if ("player".equals(kind)) {
+                String player = message.value;
+                if (player == null
+                        || !RelayIdentifiers.isValidPlayerName(player, MAX_PLAYER_LENGTH)
+                        || !RelayWireFormat.isValidEntityId(id)) {
+                    return;
+                }
+                playerNames.put(id, player);
             }
+        }
 
-            double value;
-            try {
-                value = primitive.getAsDouble();
-            } catch (RuntimeException ex) {
-                return null;
+        // A dimension this client has not loaded yet has no handle; the ping keeps its key and
+        // shows up once the player enters that dimension.
+        private void deliverPing(String sender, int serverHandle, String dimension, double x, double y, double z, PingType pingType) {
+            if (serverHandle == IdInterner.NO_HANDLE) {
+                return;
             }
 
-            if (!Double.isFinite(value)) {
-                return null;
+            if (pendingPingCount.incrementAndGet() > MAX_PENDING_PINGS) {
+                pendingPingCount.decrementAndGet();
+                return;
             }
-            return value;
-        }
+            pendingPings.add(new PingManager.IncomingPing(
+                    sender, new Vec3d(x, y, z), serverHandle, IdInterner.DIMENSIONS.lookup(dimension), dimension, pingType));
 
-        private static boolean isValidIdentifier(String value) {
-            String normalized = value.trim().toLowerCase(Locale.ROOT);
-            if (normalized.length() > MAX_SERVER_ID_LENGTH) {
-                return false;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Ping received sender={} type={} pos=({}, {}, {}) dimension={}",
+                        sender,
+                        pingType,
+                        Math.round(x),
+                        Math.round(y),
+                        Math.round(z),
+                        dimension);
             }
-            return normalized.matches("[a-z0-9._:/\\-]+") && !normalized.contains("//");
         }
 
         private static boolean isWithinBounds(double x, double y, double z) {
@@ -296,4 +1024,7 @@ public class RelayClient {
             return y >= MIN_Y && y <= MAX_Y;
         }
     }
+
+    private record QueuedPing(String partyCode, String serverId, Vec3d pos, String dimension, PingType type, long queuedAtMs) {
+    }
 }
@@ -0,0 +1,88 @@
+package de.mikov.mcping;
+
+/**
+ * Validation of identifiers received from the relay (server ids, dimension keys,
+ * player names) without regexes or allocation.
+ * <p>
+ * Each ASCII character maps to a bit set of the classes it may appear in; anything
+ * outside ASCII is rejected. Leading and trailing whitespace is ignored, matching
+ * the {@code trim()} applied when the values are read.
+ */
+final class RelayIdentifiers {
+    private static final byte IDENTIFIER = 1; // [a-zA-Z0-9._:/-]
+    private static final byte PLAYER = 2;     // [a-zA-Z0-9_-]
+
+    private static final byte[] CHAR_CLASSES = new byte[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            CHAR_CLASSES[c] = IDENTIFIER | PLAYER;
+            CHAR_CLASSES[Character.toUpperCase(c)] = IDENTIFIER | PLAYER;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CHAR_CLASSES[c] = IDENTIFIER | PLAYER;
+        }
+        CHAR_CLASSES['_'] = IDENTIFIER | PLAYER;
+        CHAR_CLASSES['-'] = IDENTIFIER | PLAYER;
+        CHAR_CLASSES['.'] = IDENTIFIER;
+        CHAR_CLASSES[':'] = IDENTIFIER;
+        CHAR_CLASSES['/'] = IDENTIFIER;
+    }
+
+    private RelayIdentifiers() {
+    }
+
+    /** Server id or dimension key: {@code [a-z0-9._:/-]} in any case, no {@code "//"}. */
+    static boolean isValidIdentifier(CharSequence value, int maxLength) {
+        int start = trimStart(value);
+        int end = trimEnd(value, start);
+        if (start == end || end - start > maxLength) {
+            return false;
+        }
+
+        char previous = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (!hasClass(c, IDENTIFIER) || (c == '/' && previous == '/')) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+
+    /** Player name as cleaned by the relay: {@code [a-zA-Z0-9_-]}. */
+    static boolean isValidPlayerName(CharSequence value, int maxLength) {
+        int start = trimStart(value);
+        int end = trimEnd(value, start);
+        if (start == end || end - start > maxLength) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (!hasClass(value.charAt(i), PLAYER)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasClass(char c, byte charClass) {
+        return c < CHAR_CLASSES.length && (CHAR_CLASSES[c] & charClass) != 0;
+    }
+
+    private static int trimStart(CharSequence value) {
+        int start = 0;
+        while (start < value.length() && value.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(CharSequence value, int start) {
+        int end = value.length();
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
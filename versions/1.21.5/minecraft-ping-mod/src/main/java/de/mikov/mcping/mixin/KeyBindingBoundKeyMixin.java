@@ -0,0 +1,24 @@
+package de.mikov.mcping.mixin;
+
+import de.mikov.mcping.PingClientMod;
+import net.minecraft.client.option.KeyBinding;
+import net.minecraft.client.util.InputUtil;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Tells the mod when a key binding is rebound (controls screen, options load), so the
+ * physical key behind the ping binding is resolved once per change instead of per input.
+ */
+@Mixin(KeyBinding.class)
+public class KeyBindingBoundKeyMixin {
+    @Inject(method = "setBoundKey", at = @At("RETURN"))
+    private void mcping$onBoundKeyChanged(InputUtil.Key boundKey, CallbackInfo ci) {
+        PingClientMod mod = PingClientMod.instance();
+        if (mod != null) {
+            mod.onKeyBindingRebound((KeyBinding) (Object) this);
+        }
+    }
+}
@@ -11,6 +11,22 @@ public enum PingType {
         return name().toLowerCase(Locale.ROOT);
     }
 
+    public int wireId() {
+        return switch (this) {
+            case NORMAL -> 0;
+            case WARNING -> 1;
+            case GO -> 2;
+        };
+    }
+
+    public static PingType fromWireId(int id) {
+        return switch (id) {
+            case 1 -> WARNING;
+            case 2 -> GO;
+            default -> NORMAL;
+        };
+    }
+
     public static PingType fromWire(String value) {
         if (value == null || value.isBlank()) {
             return NORMAL;
@@ -0,0 +1,71 @@
+package de.mikov.mcping;
+
+import net.minecraft.util.math.Vec3d;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary ping frames of relay wire protocol 1 (big-endian).
+ * <p>
+ * Outbound: {@code u8 op, u8 pingType, u16 dimensionId, u32 roomId, i32 x, i32 y, i32 z}.
+ * Inbound adds a {@code u32 senderId} after the room id. Coordinates are fixed-point
+ * in 1/{@value #COORD_SCALE} blocks; room, dimension and sender ids are interned by the
+ * relay and announced through the {@code joined} and {@code intern} JSON messages.
+ */
+final class RelayWireFormat {
+    static final int PROTOCOL_VERSION = 1;
+
+    private static final byte OP_PING = 1;
+    private static final int OUTBOUND_PING_BYTES = 20;
+    private static final int INBOUND_PING_BYTES = 24;
+    private static final double COORD_SCALE = 32.0;
+
+    private RelayWireFormat() {
+    }
+
+    static ByteBuffer encodePing(long roomId, int dimensionId, PingType pingType, Vec3d pos) {
+        ByteBuffer frame = ByteBuffer.allocate(OUTBOUND_PING_BYTES);
+        frame.put(OP_PING);
+        frame.put((byte) pingType.wireId());
+        frame.putShort((short) dimensionId);
+        frame.putInt((int) roomId);
+        frame.putInt(toFixed(pos.x));
+        frame.putInt(toFixed(pos.y));
+        frame.putInt(toFixed(pos.z));
+        return frame.flip();
+    }
+
+    static InboundPing decodePing(ByteBuffer frame) {
+        if (frame.remaining() != INBOUND_PING_BYTES || frame.get() != OP_PING) {
+            return null;
+        }
+
+        int typeId = frame.get() & 0xFF;
+        if (typeId > 2) {
+            return null;
+        }
+
+        int dimensionId = frame.getShort() & 0xFFFF;
+        long roomId = frame.getInt() & 0xFFFFFFFFL;
+        long senderId = frame.getInt() & 0xFFFFFFFFL;
+        double x = frame.getInt() / COORD_SCALE;
+        double y = frame.getInt() / COORD_SCALE;
+        double z = frame.getInt() / COORD_SCALE;
+        return new InboundPing(roomId, senderId, dimensionId, PingType.fromWireId(typeId), x, y, z);
+    }
+
+    static boolean isValidDimensionId(long id) {
+        return id >= 0 && id <= 0xFFFF;
+    }
+
+    static boolean isValidEntityId(long id) {
+        return id >= 0 && id <= 0xFFFFFFFFL;
+    }
+
+    private static int toFixed(double value) {
+        return (int) Math.round(value * COORD_SCALE);
+    }
+
+    record InboundPing(long roomId, long senderId, int dimensionId, PingType type, double x, double y, double z) {
+    }
+}
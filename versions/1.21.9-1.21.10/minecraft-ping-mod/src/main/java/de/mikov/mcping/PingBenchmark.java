@@ -0,0 +1,105 @@
+package de.mikov.mcping;
+
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.util.math.Vec3d;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in frame-time benchmark for the world ping renderer. Start the client with
+ * {@code -Dmcping.benchmarkPings=N} to keep N synthetic pings around the player and
+ * log the average and worst {@code renderWorldPings} time every few seconds.
+ */
+final class PingBenchmark {
+    private static final Logger LOGGER = LoggerFactory.getLogger("mcping-benchmark");
+
+    static final int PING_COUNT = Math.max(0, Integer.getInteger("mcping.benchmarkPings", 0));
+
+    private static final String SENDER_PREFIX = "BENCH";
+    private static final long REPORT_INTERVAL_NS = 5_000_000_000L;
+    private static final double GOLDEN_ANGLE = Math.PI * (3.0 - Math.sqrt(5.0));
+    private static final double SPACING_BLOCKS = 2.5;
+
+    private static long spawnedAtMs;
+    private static long windowStartNs;
+    private static long windowTotalNs;
+    private static long windowMaxNs;
+    private static int windowFrames;
+    private static int windowPings;
+
+    private PingBenchmark() {
+    }
+
+    static boolean enabled() {
+        return PING_COUNT > 0;
+    }
+
+    /**
+     * Re-spawns the synthetic pings every half lifetime so the set never expires.
+     * One sender per ping, so each respawn replaces the previous ping of that sender.
+     */
+    static void tick(MinecraftClient client, PingManager pingManager, PingConfig config,
+                     int serverHandle, int dimensionHandle) {
+        if (!enabled() || client.player == null
+                || serverHandle == IdInterner.NO_HANDLE || dimensionHandle == IdInterner.NO_HANDLE) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - spawnedAtMs < config.pingLifetimeMs() / 2) {
+            return;
+        }
+        spawnedAtMs = now;
+
+        // Sunflower spiral on a plane just above the player, evenly filling a disc.
+        PlayerEntity player = client.player;
+        PingType[] types = PingType.values();
+        for (int i = 0; i < PING_COUNT; i++) {
+            double radius = SPACING_BLOCKS * Math.sqrt(i + 1);
+            double angle = i * GOLDEN_ANGLE;
+            Vec3d pos = new Vec3d(
+                player.getX() + Math.cos(angle) * radius,
+                player.getY() + 2.0,
+                player.getZ() + Math.sin(angle) * radius
+            );
+            pingManager.addPing(SENDER_PREFIX + i, pos, serverHandle, dimensionHandle, types[i % types.length]);
+        }
+    }
+
+    static long frameStart() {
+        return enabled() ? System.nanoTime() : 0L;
+    }
+
+    static void frameEnd(long startNs, int pingCount) {
+        if (!enabled()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long elapsed = now - startNs;
+        windowTotalNs += elapsed;
+        windowMaxNs = Math.max(windowMaxNs, elapsed);
+        windowPings += pingCount;
+        windowFrames++;
+
+        if (windowStartNs == 0L) {
+            windowStartNs = now;
+            return;
+        }
+        if (now - windowStartNs < REPORT_INTERVAL_NS) {
+            return;
+        }
+
+        LOGGER.info("renderWorldPings: frames={} avgPings={} avgUs={} maxUs={}",
+            windowFrames,
+            windowPings / windowFrames,
+            windowTotalNs / windowFrames / 1_000L,
+            windowMaxNs / 1_000L);
+        windowStartNs = now;
+        windowTotalNs = 0L;
+        windowMaxNs = 0L;
+        windowPings = 0;
+        windowFrames = 0;
+    }
+}
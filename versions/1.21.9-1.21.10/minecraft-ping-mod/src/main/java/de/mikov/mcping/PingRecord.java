@@ -2,15 +2,41 @@ package de.mikov.mcping;
 
 import net.minecraft.util.math.Vec3d;
 
+/**
+ * One live ping. Compared by identity, not by value: the same sender can ping the same spot
+ * twice within one batch (same expiry, positions quantized by the wire format), and
+ * PingManager's set, expiry heap and per-sender queue must still see two separate pings.
+ * <p>
+ * {@code dimension} is always the dimension key. A relayed ping in a dimension this client has
+ * not loaded yet has no {@code dimensionHandle} ({@link IdInterner#NO_HANDLE}) and is matched by
+ * that key instead. {@code senderKey} is the sender as PingManager groups it (trimmed, lower
+ * case), worked out once when the ping is added rather than on every insert and expiry.
+ */
 public record PingRecord(
         String sender,
+        String senderKey,
         Vec3d position,
-    String serverId,
+        int serverHandle,
+        int dimensionHandle,
         String dimension,
-    PingType type,
+        PingType type,
         long expiresAtMs
 ) {
+    public String serverId() {
+        return IdInterner.SERVER_IDS.valueOf(serverHandle);
+    }
+
     public boolean expired(long nowMs) {
         return nowMs >= expiresAtMs;
     }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
 }
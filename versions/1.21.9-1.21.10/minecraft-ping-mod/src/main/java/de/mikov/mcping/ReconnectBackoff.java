@@ -0,0 +1,98 @@
+package de.mikov.mcping;
+
+import de.mikov.mcping.RelayClient.ConnectionState;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Connection state machine and reconnect schedule of {@link RelayClient}.
+ * <p>
+ * After a failed attempt or a dropped connection the next attempt waits a random delay in
+ * [0, min(cap, base * 2^attempts)] ("full jitter"), so clients cut off by a relay restart
+ * spread their reconnects out instead of arriving in lockstep. A connection that stayed up
+ * for {@link #STABLE_CONNECTION_MS} resets the exponent.
+ * <p>
+ * Not thread-safe; {@code RelayClient} only calls it while holding its own lock. Time and
+ * randomness are passed in, so the schedule can be checked without a relay.
+ */
+final class ReconnectBackoff {
+    static final long BASE_DELAY_MS = 1_000L;
+    static final long MAX_DELAY_MS = 60_000L;
+    // A connection that lasted this long counts as healthy and resets the backoff.
+    static final long STABLE_CONNECTION_MS = 30_000L;
+
+    private ConnectionState state = ConnectionState.DISCONNECTED;
+    private int failedAttempts;
+    private long connectedAtMs;
+    private long nextAttemptMs;
+
+    ConnectionState state() {
+        return state;
+    }
+
+    int failedAttempts() {
+        return failedAttempts;
+    }
+
+    long nextAttemptMs() {
+        return nextAttemptMs;
+    }
+
+    /** Whether a new connection attempt is due at {@code now}. */
+    boolean attemptDue(long now) {
+        return state == ConnectionState.DISCONNECTED
+            || (state == ConnectionState.BACKING_OFF && now >= nextAttemptMs);
+    }
+
+    /** DISCONNECTED or BACKING_OFF to CONNECTING; false if an attempt is running or we are connected. */
+    boolean startAttempt() {
+        if (state == ConnectionState.CONNECTING || state == ConnectionState.CONNECTED) {
+            return false;
+        }
+        state = ConnectionState.CONNECTING;
+        return true;
+    }
+
+    void connected(long now) {
+        state = ConnectionState.CONNECTED;
+        connectedAtMs = now;
+    }
+
+    /**
+     * An attempt failed or the connection dropped: moves to BACKING_OFF and returns the delay
+     * until the next attempt. A {@code failover} to another relay only waits up to the base delay.
+     */
+    long failed(long now, boolean failover, RandomGenerator random) {
+        if (connectedAtMs > 0 && now - connectedAtMs >= STABLE_CONNECTION_MS) {
+            failedAttempts = 0;
+        }
+        connectedAtMs = 0;
+
+        long delay = random.nextLong(ceilingMs(failover ? 0 : failedAttempts) + 1);
+        failedAttempts++;
+        nextAttemptMs = now + delay;
+        state = ConnectionState.BACKING_OFF;
+        return delay;
+    }
+
+    /**
+     * Drops the connection, abandons the attempt in flight or cuts a pending backoff short, on
+     * purpose (relay switch): the next attempt starts right away.
+     */
+    void reset() {
+        failedAttempts = 0;
+        connectedAtMs = 0;
+        nextAttemptMs = 0;
+        state = ConnectionState.DISCONNECTED;
+    }
+
+    /** The client was closed; no further attempts are made. */
+    void stop() {
+        state = ConnectionState.DISCONNECTED;
+    }
+
+    /** Upper bound of the jittered delay after {@code failedAttempts} failures in a row. */
+    static long ceilingMs(int failedAttempts) {
+        return Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(failedAttempts, 16));
+    }
+}
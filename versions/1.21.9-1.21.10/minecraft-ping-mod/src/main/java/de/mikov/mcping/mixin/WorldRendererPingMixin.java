@@ -38,11 +38,7 @@ public class WorldRendererPingMixin {
         PingRenderUtil.renderWorldPings(
                 camera,
                 client,
-                mod.getPingManager().activePings(
-                        System.currentTimeMillis(),
-                        mod.getPartyState().serverId(),
-                        PingRenderUtil.currentDimensionKey(client)
-                ),
+                mod.visiblePings(client),
                 mod.config()
         );
     }
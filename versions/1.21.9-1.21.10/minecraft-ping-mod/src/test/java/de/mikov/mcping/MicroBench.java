@@ -0,0 +1,53 @@
+package de.mikov.mcping;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Timing loop for the {@code benchmark}-tagged tests: a warm-up, then the best of a few timed
+ * rounds, and the bytes this thread allocated per operation. Not JMH; good enough to compare
+ * two code paths side by side on one machine.
+ */
+final class MicroBench {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int TIMED_ROUNDS = 5;
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Results are folded in here so the JIT cannot drop the measured work.
+    private static volatile int sink;
+
+    @FunctionalInterface
+    interface Operation {
+        int run(int iteration);
+    }
+
+    record Result(double nsPerOp, double bytesPerOp) {
+    }
+
+    private MicroBench() {
+    }
+
+    static Result measure(int opsPerRound, Operation operation) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            runRound(opsPerRound, operation);
+        }
+
+        long bestNs = Long.MAX_VALUE;
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        for (int round = 0; round < TIMED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            runRound(opsPerRound, operation);
+            bestNs = Math.min(bestNs, System.nanoTime() - start);
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        return new Result(bestNs / (double) opsPerRound, allocated / (double) (opsPerRound * (long) TIMED_ROUNDS));
+    }
+
+    private static void runRound(int ops, Operation operation) {
+        int acc = 0;
+        for (int i = 0; i < ops; i++) {
+            acc += operation.run(i);
+        }
+        sink += acc;
+    }
+}
@@ -0,0 +1,152 @@
+package de.mikov.mcping;
+
+import de.mikov.mcping.RelayClient.ConnectionState;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReconnectBackoffTest {
+    // Always draws the top of the range, i.e. the ceiling itself.
+    private static final RandomGenerator LONGEST = new RandomGenerator() {
+        @Override
+        public long nextLong() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long nextLong(long bound) {
+            return bound - 1;
+        }
+    };
+
+    @Test
+    void ceilingDoublesUpToTheCap() {
+        assertEquals(1_000L, ReconnectBackoff.ceilingMs(0));
+        assertEquals(2_000L, ReconnectBackoff.ceilingMs(1));
+        assertEquals(32_000L, ReconnectBackoff.ceilingMs(5));
+        assertEquals(60_000L, ReconnectBackoff.ceilingMs(6));
+        assertEquals(60_000L, ReconnectBackoff.ceilingMs(40));
+    }
+
+    @Test
+    void failedAttemptsBackOffExponentially() {
+        ReconnectBackoff backoff = new ReconnectBackoff();
+        long now = 0L;
+        for (long expected : new long[] {1_000L, 2_000L, 4_000L, 8_000L}) {
+            assertTrue(backoff.startAttempt());
+            assertEquals(ConnectionState.CONNECTING, backoff.state());
+            long delay = backoff.failed(now, false, LONGEST);
+            assertEquals(expected, delay);
+            assertEquals(ConnectionState.BACKING_OFF, backoff.state());
+            assertFalse(backoff.attemptDue(now + delay - 1));
+            assertTrue(backoff.attemptDue(now + delay));
+            now += delay;
+        }
+        assertEquals(4, backoff.failedAttempts());
+    }
+
+    @Test
+    void onlyOneAttemptAtATime() {
+        ReconnectBackoff backoff = new ReconnectBackoff();
+        assertTrue(backoff.attemptDue(0L));
+        assertTrue(backoff.startAttempt());
+        assertFalse(backoff.attemptDue(0L));
+        assertFalse(backoff.startAttempt());
+
+        backoff.connected(0L);
+        assertEquals(ConnectionState.CONNECTED, backoff.state());
+        assertFalse(backoff.attemptDue(0L));
+        assertFalse(backoff.startAttempt());
+    }
+
+    @Test
+    void stableConnectionResetsTheExponent() {
+        ReconnectBackoff backoff = new ReconnectBackoff();
+        for (int i = 0; i < 3; i++) {
+            backoff.startAttempt();
+            backoff.failed(0L, false, LONGEST);
+        }
+
+        backoff.startAttempt();
+        backoff.connected(10_000L);
+        assertEquals(8_000L, backoff.failed(15_000L, false, LONGEST));
+
+        backoff.startAttempt();
+        backoff.connected(30_000L);
+        assertEquals(1_000L, backoff.failed(30_000L + ReconnectBackoff.STABLE_CONNECTION_MS, false, LONGEST));
+    }
+
+    @Test
+    void failoverWaitsTheBaseDelayAtMost() {
+        ReconnectBackoff backoff = new ReconnectBackoff();
+        for (int i = 0; i < 5; i++) {
+            backoff.startAttempt();
+            backoff.failed(0L, false, LONGEST);
+        }
+        backoff.startAttempt();
+        assertEquals(ReconnectBackoff.BASE_DELAY_MS, backoff.failed(0L, true, LONGEST));
+    }
+
+    @Test
+    void relaySwitchReconnectsRightAway() {
+        ReconnectBackoff backoff = new ReconnectBackoff();
+        backoff.startAttempt();
+        backoff.failed(0L, false, LONGEST);
+        backoff.startAttempt();
+        backoff.connected(1_000L);
+
+        backoff.reset();
+        assertEquals(ConnectionState.DISCONNECTED, backoff.state());
+        assertEquals(0, backoff.failedAttempts());
+        assertTrue(backoff.attemptDue(1_000L));
+    }
+
+    @Test
+    void relaySwitchAbandonsTheAttemptInFlight() {
+        ReconnectBackoff backoff = new ReconnectBackoff();
+        backoff.startAttempt();
+
+        backoff.reset();
+        assertEquals(ConnectionState.DISCONNECTED, backoff.state());
+        assertTrue(backoff.attemptDue(0L));
+        assertTrue(backoff.startAttempt());
+    }
+
+    @Test
+    void relaySwitchCutsAPendingBackoffShort() {
+        ReconnectBackoff backoff = new ReconnectBackoff();
+        backoff.startAttempt();
+        backoff.failed(0L, false, LONGEST);
+        assertFalse(backoff.attemptDue(0L));
+
+        backoff.reset();
+        assertEquals(ConnectionState.DISCONNECTED, backoff.state());
+        assertTrue(backoff.attemptDue(0L));
+    }
+
+    @Test
+    void fullJitterCoversTheWholeRange() {
+        SplittableRandom random = new SplittableRandom(42L);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long sum = 0L;
+        int samples = 10_000;
+        for (int i = 0; i < samples; i++) {
+            ReconnectBackoff backoff = new ReconnectBackoff();
+            backoff.startAttempt();
+            long delay = backoff.failed(0L, false, random);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+            sum += delay;
+        }
+        assertTrue(min >= 0L && min < 50L, "min " + min);
+        assertTrue(max <= 1_000L && max > 950L, "max " + max);
+        double mean = sum / (double) samples;
+        assertTrue(Math.abs(mean - 500.0) < 25.0, "mean " + mean);
+    }
+}
@@ -0,0 +1,99 @@
+package de.mikov.mcping;
+
+import de.mikov.mcping.RelayClient.ConnectionState;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Clients that lose a relay together must not all come back together: after a simulated relay
+ * restart the reconnects have to be spread over the jitter window. Each client's jitter is seeded,
+ * so the drawn delays are the same every run and only thread scheduling varies.
+ */
+class RelayReconnectTest {
+    private static final int CLIENTS = 24;
+    private static final long TICK_MS = 10L;
+
+    @Test
+    void reconnectsSpreadOutAfterRelayRestart() throws Exception {
+        List<RelayClient> clients = new ArrayList<>();
+        try (StandInRelay relay = new StandInRelay()) {
+            for (int i = 0; i < CLIENTS; i++) {
+                clients.add(new RelayClient(null, new PingManager(new PingConfig()), new PartyState(), List.of(relay.url()),
+                    new SplittableRandom(i)));
+            }
+
+            tickUntil(clients, 5_000L, () -> allConnected(clients));
+            assertTrue(allConnected(clients), "clients did not connect to the stand-in relay");
+
+            int before = relay.handshakeTimesMs().size();
+            relay.stop();
+            tickUntil(clients, 5_000L, () -> noneConnected(clients));
+            assertTrue(noneConnected(clients), "clients did not notice the relay going away");
+            relay.start();
+            long restartedAtMs = System.currentTimeMillis();
+
+            tickUntil(clients, 10_000L, () -> allConnected(clients));
+            assertTrue(allConnected(clients), "clients did not reconnect after the restart");
+
+            List<Long> reconnects = new ArrayList<>(relay.handshakeTimesMs().subList(before, before + CLIENTS));
+            Collections.sort(reconnects);
+            long spreadMs = reconnects.get(CLIENTS - 1) - reconnects.get(0);
+            int busiest = busiestWindow(reconnects, 100L);
+
+            assertTrue(reconnects.get(0) >= restartedAtMs, "reconnect before the restart");
+            assertTrue(spreadMs >= 300L, "reconnects arrived within " + spreadMs + " ms");
+            assertTrue(busiest <= CLIENTS / 2, busiest + " of " + CLIENTS + " reconnects within 100 ms");
+        } finally {
+            for (RelayClient client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    private static void tickUntil(List<RelayClient> clients, long timeoutMs, BooleanSupplier done) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!done.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            for (RelayClient client : clients) {
+                client.tick();
+            }
+            Thread.sleep(TICK_MS);
+        }
+    }
+
+    private static boolean allConnected(List<RelayClient> clients) {
+        for (RelayClient client : clients) {
+            if (client.connectionState() != ConnectionState.CONNECTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean noneConnected(List<RelayClient> clients) {
+        for (RelayClient client : clients) {
+            if (client.connectionState() == ConnectionState.CONNECTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int busiestWindow(List<Long> sortedTimesMs, long windowMs) {
+        int busiest = 0;
+        int start = 0;
+        for (int end = 0; end < sortedTimesMs.size(); end++) {
+            while (sortedTimesMs.get(end) - sortedTimesMs.get(start) >= windowMs) {
+                start++;
+            }
+            busiest = Math.max(busiest, end - start + 1);
+        }
+        return busiest;
+    }
+}